@@ -41,6 +41,22 @@ public class VideoijkBean {
      * 当前选中的
      */
     boolean select;
+    /**
+     * 码率，单位bit/s，未知时为0，HLS主播放列表中的BANDWIDTH
+     */
+    long bandwidth;
+    /**
+     * 视频宽度，未知时为0
+     */
+    int width;
+    /**
+     * 视频高度，未知时为0
+     */
+    int height;
+    /**
+     * 编码格式，HLS主播放列表中的CODECS
+     */
+    String codecs;
 
     public int getId() {
         return id;
@@ -82,6 +98,37 @@ public class VideoijkBean {
         this.select = select;
     }
 
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public String getCodecs() {
+        return codecs;
+    }
+
+    public void setCodecs(String codecs) {
+        this.codecs = codecs;
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -91,6 +138,10 @@ public class VideoijkBean {
         VideoijkBean that = (VideoijkBean) o;
 
         if (id != that.id) return false;
+        if (bandwidth != that.bandwidth) return false;
+        if (width != that.width) return false;
+        if (height != that.height) return false;
+        if (codecs != null ? !codecs.equals(that.codecs) : that.codecs != null) return false;
         if (stream != null ? !stream.equals(that.stream) : that.stream != null) return false;
         if (url != null ? !url.equals(that.url) : that.url != null) return false;
         return remarks != null ? remarks.equals(that.remarks) : that.remarks == null;
@@ -103,6 +154,10 @@ public class VideoijkBean {
         result = 31 * result + (stream != null ? stream.hashCode() : 0);
         result = 31 * result + (url != null ? url.hashCode() : 0);
         result = 31 * result + (remarks != null ? remarks.hashCode() : 0);
+        result = 31 * result + (int) (bandwidth ^ (bandwidth >>> 32));
+        result = 31 * result + width;
+        result = 31 * result + height;
+        result = 31 * result + (codecs != null ? codecs.hashCode() : 0);
         return result;
     }
 }
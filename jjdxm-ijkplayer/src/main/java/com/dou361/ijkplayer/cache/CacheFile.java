@@ -0,0 +1,424 @@
+package com.dou361.ijkplayer.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 一个视频地址对应的本地稀疏缓存文件，可以只缓存其中的部分区间。
+ * 数据按原始偏移写入data文件，已缓存的区间记录在只追加的journal文件中：
+ * 数据每写入一批先同步到磁盘再追加journal记录，进程崩溃后重放journal即可恢复，
+ * 最多丢失最后一批没提交的数据，启动时不需要扫描数据文件
+ *
+ * @date 2026/10/17
+ */
+class CacheFile {
+
+    private static final int JOURNAL_MAGIC = 0x494a4b43;
+    private static final int JOURNAL_VERSION = 1;
+
+    /**
+     * 没提交的数据达到这个大小或者距离上次提交超过这个时间时提交一次journal，
+     * 合并多次写入的磁盘同步，不拖慢播放时的读写
+     */
+    private static final long COMMIT_SIZE = 1024 * 1024;
+    private static final long COMMIT_INTERVAL = 1000;
+
+    private static final byte RECORD_INFO = 1;
+    private static final byte RECORD_RANGE = 2;
+
+    /**
+     * journal记录数超过区间数的倍数时压缩重写
+     */
+    private static final int COMPACT_FACTOR = 4;
+    private static final int COMPACT_MIN_RECORDS = 64;
+
+    private final String key;
+    private final File dataFile;
+    private final File journalFile;
+    private RandomAccessFile dataAccess;
+    private RandomAccessFile journalAccess;
+
+    /**
+     * 视频总长度，未知时为-1
+     */
+    private long length = -1;
+    private String mime;
+
+    /**
+     * 服务器返回的ETag，用来判断服务器上的文件是否变了，没有时为null
+     */
+    private String etag;
+
+    /**
+     * 服务器是否支持区间请求，只在内存中记录，0为未知，1为支持，-1为不支持
+     */
+    private int rangeSupport;
+
+    /**
+     * 已缓存的区间，key为起始位置，value为结束位置(不包含)，读取时O(log n)查询
+     */
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    /**
+     * 已经写入数据文件但还没有提交到journal的区间
+     */
+    private final TreeMap<Long, Long> uncommitted = new TreeMap<>();
+
+    private int journalRecords;
+
+    private long uncommittedSize;
+
+    private long lastCommitTime = System.currentTimeMillis();
+
+    /**
+     * 缓存被清空时加一，清空之前开始的提交不再写入journal
+     */
+    private int generation;
+
+    /**
+     * 正在使用这个文件的连接数
+     */
+    int refCount;
+
+    CacheFile(File dir, String key) throws IOException {
+        this.key = key;
+        this.dataFile = new File(dir, key + ".data");
+        this.journalFile = new File(dir, key + ".journal");
+        dataAccess = new RandomAccessFile(dataFile, "rw");
+        journalAccess = new RandomAccessFile(journalFile, "rw");
+        replayJournal();
+        if (journalRecords > COMPACT_MIN_RECORDS && journalRecords > ranges.size() * COMPACT_FACTOR) {
+            compactJournal();
+        }
+        journalFile.setLastModified(System.currentTimeMillis());
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    synchronized long getLength() {
+        return length;
+    }
+
+    synchronized String getMime() {
+        return mime;
+    }
+
+    synchronized void setRangeSupported(boolean supported) {
+        rangeSupport = supported ? 1 : -1;
+    }
+
+    /**
+     * 已经确认服务器支持区间请求
+     */
+    synchronized boolean isRangeSupported() {
+        return rangeSupport > 0;
+    }
+
+    /**
+     * 服务器忽略Range返回了整个文件，这种文件只能用一个连接顺序下载
+     */
+    synchronized boolean isRangeUnsupported() {
+        return rangeSupport < 0;
+    }
+
+    /**
+     * 每次打开网络请求时更新视频信息，长度或者ETag和缓存的不一致时清空旧缓存
+     * @return 旧缓存是否被清空
+     */
+    synchronized boolean setInfo(long length, String mime, String etag) throws IOException {
+        if (this.length > 0 && (this.length != length
+                || (this.etag != null && etag != null && !this.etag.equals(etag)))) {
+            //服务器上的文件变了，旧的缓存作废
+            ranges.clear();
+            uncommitted.clear();
+            uncommittedSize = 0;
+            generation++;
+            dataAccess.setLength(0);
+            this.length = length;
+            this.mime = mime;
+            this.etag = etag;
+            compactJournal();
+            return true;
+        }
+        if (this.length == length && (mime == null ? this.mime == null : mime.equals(this.mime))
+                && (etag == null || etag.equals(this.etag))) {
+            return false;
+        }
+        this.length = length;
+        this.mime = mime;
+        if (etag != null) {
+            this.etag = etag;
+        }
+        appendRecord(RECORD_INFO, encodeInfo(length, mime, this.etag));
+        return false;
+    }
+
+    /**
+     * 从指定位置开始连续缓存的字节数
+     */
+    synchronized long available(long position) {
+        Map.Entry<Long, Long> entry = ranges.floorEntry(position);
+        if (entry != null && entry.getValue() > position) {
+            return entry.getValue() - position;
+        }
+        return 0;
+    }
+
+    /**
+     * 指定位置之后下一段缓存的起始位置，没有时为-1
+     */
+    synchronized long nextCachedPosition(long position) {
+        Long next = ranges.higherKey(position);
+        return next == null ? -1 : next;
+    }
+
+    synchronized boolean isCompleted() {
+        return length > 0 && available(0) >= length;
+    }
+
+    synchronized int read(long position, byte[] buffer, int offset, int size) throws IOException {
+        dataAccess.seek(position);
+        return dataAccess.read(buffer, offset, size);
+    }
+
+    void write(long position, byte[] buffer, int offset, int size) throws IOException {
+        boolean needCommit;
+        synchronized (this) {
+            dataAccess.seek(position);
+            dataAccess.write(buffer, offset, size);
+            long end = position + size;
+            addRange(ranges, position, end);
+            addRange(uncommitted, position, end);
+            uncommittedSize += size;
+            needCommit = uncommittedSize >= COMMIT_SIZE
+                    || System.currentTimeMillis() - lastCommitTime >= COMMIT_INTERVAL
+                    || (length > 0 && end >= length);
+        }
+        if (needCommit) {
+            commit();
+        }
+    }
+
+    /**
+     * 合并新写入的区间和相邻的已有区间
+     */
+    private static void addRange(TreeMap<Long, Long> ranges, long start, long end) {
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+        while (next != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(start);
+        }
+        ranges.put(start, end);
+    }
+
+    synchronized long getCachedSize() {
+        long size = 0;
+        for (Map.Entry<Long, Long> entry : ranges.entrySet()) {
+            size += entry.getValue() - entry.getKey();
+        }
+        return size;
+    }
+
+    synchronized void close() throws IOException {
+        try {
+            commit();
+            if (journalRecords > COMPACT_MIN_RECORDS && journalRecords > ranges.size() * COMPACT_FACTOR) {
+                compactJournal();
+            }
+        } finally {
+            dataAccess.close();
+            journalAccess.close();
+        }
+        journalFile.setLastModified(System.currentTimeMillis());
+    }
+
+    void delete() {
+        dataFile.delete();
+        journalFile.delete();
+    }
+
+    /**
+     * 数据落盘后再把区间追加到journal，保证journal里记录的区间一定有数据。
+     * 磁盘同步在锁外进行，同步期间其它线程仍然可以读写缓存
+     */
+    private void commit() throws IOException {
+        TreeMap<Long, Long> committing;
+        int committingGeneration;
+        synchronized (this) {
+            if (uncommitted.isEmpty()) {
+                return;
+            }
+            committing = new TreeMap<>(uncommitted);
+            committingGeneration = generation;
+            uncommitted.clear();
+            uncommittedSize = 0;
+            lastCommitTime = System.currentTimeMillis();
+        }
+        //同步会把之前写入的数据全部落盘，包括这次要提交的区间
+        dataAccess.getFD().sync();
+        synchronized (this) {
+            if (committingGeneration != generation) {
+                return;
+            }
+            for (Map.Entry<Long, Long> entry : committing.entrySet()) {
+                appendRecord(RECORD_RANGE, encodeRange(entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * 重放journal，遇到写了一半或者校验失败的记录时截断到最后一条完整记录
+     */
+    private void replayJournal() throws IOException {
+        long fileLength = journalAccess.length();
+        if (fileLength < 8) {
+            resetJournal();
+            return;
+        }
+        journalAccess.seek(0);
+        if (journalAccess.readInt() != JOURNAL_MAGIC || journalAccess.readInt() != JOURNAL_VERSION) {
+            dataAccess.setLength(0);
+            resetJournal();
+            return;
+        }
+        long validPosition = journalAccess.getFilePointer();
+        long dataLength = dataAccess.length();
+        try {
+            while (validPosition < fileLength) {
+                byte type = journalAccess.readByte();
+                int size = journalAccess.readInt();
+                if (size < 0 || size > fileLength - journalAccess.getFilePointer() - 4) {
+                    break;
+                }
+                byte[] payload = new byte[size];
+                journalAccess.readFully(payload);
+                int checksum = journalAccess.readInt();
+                if (checksum != checksum(type, payload)) {
+                    break;
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                if (type == RECORD_INFO) {
+                    length = in.readLong();
+                    mime = in.readUTF();
+                    if (mime.length() == 0) {
+                        mime = null;
+                    }
+                    //旧版本的记录没有ETag
+                    etag = in.available() > 0 ? in.readUTF() : "";
+                    if (etag.length() == 0) {
+                        etag = null;
+                    }
+                } else if (type == RECORD_RANGE) {
+                    long start = in.readLong();
+                    long end = Math.min(in.readLong(), dataLength);
+                    if (start < end) {
+                        addRange(ranges, start, end);
+                    }
+                }
+                journalRecords++;
+                validPosition = journalAccess.getFilePointer();
+            }
+        } catch (EOFException e) {
+            //最后一条记录没写完
+        }
+        if (validPosition < fileLength) {
+            journalAccess.setLength(validPosition);
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        journalAccess.setLength(0);
+        journalAccess.writeInt(JOURNAL_MAGIC);
+        journalAccess.writeInt(JOURNAL_VERSION);
+        journalRecords = 0;
+    }
+
+    /**
+     * 用合并后的区间重写journal，先写临时文件再改名，重写过程中崩溃不影响旧journal
+     */
+    private void compactJournal() throws IOException {
+        dataAccess.getFD().sync();
+        uncommitted.clear();
+        uncommittedSize = 0;
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
+        try {
+            temp.setLength(0);
+            temp.writeInt(JOURNAL_MAGIC);
+            temp.writeInt(JOURNAL_VERSION);
+            writeRecord(temp, RECORD_INFO, encodeInfo(length, mime, etag));
+            for (Map.Entry<Long, Long> entry : ranges.entrySet()) {
+                writeRecord(temp, RECORD_RANGE, encodeRange(entry.getKey(), entry.getValue()));
+            }
+            temp.getFD().sync();
+        } finally {
+            temp.close();
+        }
+        journalAccess.close();
+        if (!tempFile.renameTo(journalFile)) {
+            tempFile.delete();
+            throw new IOException("rename journal failed");
+        }
+        journalAccess = new RandomAccessFile(journalFile, "rw");
+        journalAccess.seek(journalAccess.length());
+        journalRecords = ranges.size() + 1;
+    }
+
+    private void appendRecord(byte type, byte[] payload) throws IOException {
+        journalAccess.seek(journalAccess.length());
+        writeRecord(journalAccess, type, payload);
+        journalRecords++;
+    }
+
+    private static void writeRecord(RandomAccessFile file, byte type, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 9);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt(checksum(type, payload));
+        //一条记录一次写入，减少崩溃时出现半条记录的机会
+        file.write(bytes.toByteArray());
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(type);
+        crc32.update(payload, 0, payload.length);
+        return (int) crc32.getValue();
+    }
+
+    private static byte[] encodeInfo(long length, String mime, String etag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(length);
+        out.writeUTF(mime == null ? "" : mime);
+        out.writeUTF(etag == null ? "" : etag);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeRange(long start, long end) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(start);
+        out.writeLong(end);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+package com.dou361.ijkplayer.cache;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 空闲时预热缓存，把接下来可能打开的视频放进队列，
+ * 等到不计流量的网络并且充电或者设备空闲时，由{@link CacheWarmerService}缓存文件头和开头几秒
+ *
+ * @date 2026/10/17
+ */
+public class CacheWarmer {
+
+    private static final String PREFS_NAME = "video-cache-warmer";
+    private static final String KEY_QUEUE = "queue";
+
+    /**
+     * 队列最多保存的视频数
+     */
+    private static final int MAX_QUEUE_SIZE = 20;
+
+    /**
+     * 充电和设备空闲分别调度，满足其中一个条件就开始预热
+     */
+    static final int JOB_ID_CHARGING = 0x494a4b01;
+    static final int JOB_ID_IDLE = 0x494a4b02;
+
+    private CacheWarmer() {
+    }
+
+    /**
+     * 把视频加入预热队列，按顺序预热，已经在队列中的地址移到新的位置
+     * @param context 上下文
+     * @param urls    接下来可能打开的视频地址
+     */
+    public static void enqueue(Context context, List<String> urls) {
+        synchronized (CacheWarmer.class) {
+            List<String> queue = getQueue(context);
+            List<String> added = new ArrayList<>();
+            for (String url : urls) {
+                if (VideoCacheProxy.isCacheable(url) && !added.contains(url)) {
+                    added.add(url);
+                }
+            }
+            queue.removeAll(added);
+            queue.addAll(added);
+            while (queue.size() > MAX_QUEUE_SIZE) {
+                queue.remove(0);
+            }
+            saveQueue(context, queue);
+        }
+        schedule(context);
+    }
+
+    /**
+     * 清空预热队列并取消调度
+     */
+    public static void clear(Context context) {
+        synchronized (CacheWarmer.class) {
+            saveQueue(context, new ArrayList<String>());
+        }
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler != null) {
+            jobScheduler.cancel(JOB_ID_CHARGING);
+            jobScheduler.cancel(JOB_ID_IDLE);
+        }
+    }
+
+    static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+        ComponentName service = new ComponentName(context, CacheWarmerService.class);
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID_CHARGING, service)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build());
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID_IDLE, service)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresDeviceIdle(true)
+                .setPersisted(true)
+                .build());
+    }
+
+    /**
+     * 队列中的第一个视频，队列为空时返回null
+     */
+    static String peek(Context context) {
+        synchronized (CacheWarmer.class) {
+            List<String> queue = getQueue(context);
+            return queue.isEmpty() ? null : queue.get(0);
+        }
+    }
+
+    /**
+     * 预热完成后从队列中删除
+     */
+    static void remove(Context context, String url) {
+        synchronized (CacheWarmer.class) {
+            List<String> queue = getQueue(context);
+            if (queue.remove(url)) {
+                saveQueue(context, queue);
+            }
+        }
+    }
+
+    private static List<String> getQueue(Context context) {
+        List<String> queue = new ArrayList<>();
+        String json = getPreferences(context).getString(KEY_QUEUE, null);
+        if (json == null) {
+            return queue;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                queue.add(array.getString(i));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return queue;
+    }
+
+    private static void saveQueue(Context context, List<String> queue) {
+        getPreferences(context).edit().putString(KEY_QUEUE, new JSONArray(queue).toString()).apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,89 @@
+package com.dou361.ijkplayer.cache;
+
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.Context;
+import android.os.SystemClock;
+
+/**
+ * 执行缓存预热的JobService，依次预热队列中的视频，
+ * 条件不再满足被系统停止时，中断正在进行的下载，剩下的视频等下次调度继续
+ *
+ * @date 2026/10/17
+ */
+public class CacheWarmerService extends JobService {
+
+    /**
+     * 其它地方正在预加载同一个地址时，等待一段时间再重试
+     */
+    private static final long RETRY_INTERVAL = 1000;
+
+    private volatile boolean stopped;
+
+    /**
+     * 正在预热的视频的取消信号，被系统停止时中断下载
+     */
+    private volatile CancelSignal currentSignal;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        if (CacheWarmer.peek(this) == null) {
+            return false;
+        }
+        stopped = false;
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmUp(params);
+            }
+        }, "video-cache-warmer");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stopped = true;
+        CancelSignal signal = currentSignal;
+        if (signal != null) {
+            //网络变成计费网络等条件不满足时立即停止正在进行的下载
+            signal.cancel();
+        }
+        //队列没有处理完，条件重新满足时再调度
+        return CacheWarmer.peek(this) != null;
+    }
+
+    private void warmUp(JobParameters params) {
+        VideoCacheProxy proxy = VideoCacheProxy.getInstance(this);
+        String url;
+        while (!stopped && (url = CacheWarmer.peek(this)) != null) {
+            CancelSignal signal = new CancelSignal();
+            currentSignal = signal;
+            if (stopped) {
+                break;
+            }
+            if (!proxy.isCompleted(url) && !proxy.preloadNow(url, signal)) {
+                //其它地方正在预加载，这次没有预热，留在队列中稍后重试
+                SystemClock.sleep(RETRY_INTERVAL);
+                continue;
+            }
+            if (!stopped) {
+                CacheWarmer.remove(this, url);
+            }
+        }
+        currentSignal = null;
+        if (stopped) {
+            return;
+        }
+        //队列已经处理完，取消另一个条件下的调度
+        JobScheduler jobScheduler = (JobScheduler) getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler != null) {
+            int otherJobId = params.getJobId() == CacheWarmer.JOB_ID_CHARGING
+                    ? CacheWarmer.JOB_ID_IDLE : CacheWarmer.JOB_ID_CHARGING;
+            jobScheduler.cancel(otherJobId);
+        }
+        jobFinished(params, false);
+    }
+}
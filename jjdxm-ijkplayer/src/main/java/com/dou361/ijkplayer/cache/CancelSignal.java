@@ -0,0 +1,42 @@
+package com.dou361.ijkplayer.cache;
+
+import java.io.InterruptedIOException;
+
+import okhttp3.Call;
+
+/**
+ * 后台下载的取消信号，取消时中断正在进行的网络请求，之后再发起的请求直接失败
+ *
+ * @date 2026/10/17
+ */
+class CancelSignal {
+
+    private Call call;
+
+    private boolean canceled;
+
+    /**
+     * 发起请求前登记，已经取消时抛出异常
+     */
+    synchronized void attach(Call call) throws InterruptedIOException {
+        if (canceled) {
+            throw new InterruptedIOException("canceled");
+        }
+        this.call = call;
+    }
+
+    void cancel() {
+        Call current;
+        synchronized (this) {
+            canceled = true;
+            current = call;
+        }
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    synchronized boolean isCanceled() {
+        return canceled;
+    }
+}
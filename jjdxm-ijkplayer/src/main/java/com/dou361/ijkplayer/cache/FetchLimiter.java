@@ -0,0 +1,115 @@
+package com.dou361.ijkplayer.cache;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 暂停时限制代理从网络拉取的数据量，只允许拉到播放位置之后一段距离，
+ * 继续播放时放开，被阻塞的连接马上继续下载
+ *
+ * @date 2026/10/17
+ */
+class FetchLimiter {
+
+    /**
+     * 默认暂停时允许超前的时长
+     */
+    private static final long DEFAULT_AHEAD_MS = 10 * 1000;
+
+    /**
+     * 默认暂停时允许超前的字节数，按时长换算不了的时候使用
+     */
+    private static final long DEFAULT_AHEAD_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * 连接最多等待的时间，超时后断开，播放器继续播放时会重新连接，不会一直占着缓存文件
+     */
+    private static final long MAX_WAIT_TIME = 60 * 1000;
+
+    private long aheadMs = DEFAULT_AHEAD_MS;
+    private long aheadBytes = DEFAULT_AHEAD_BYTES;
+
+    /**
+     * 暂停中的地址和暂停时的播放位置，key为地址，value为播放位置和时长，单位毫秒
+     */
+    private final Map<String, long[]> pausedUrls = new HashMap<>();
+
+    /**
+     * 暂停后其它地址从网络拉取的字节数，比如HLS的分片
+     */
+    private long bytesSincePause;
+
+    synchronized void setLimit(long aheadMs, long aheadBytes) {
+        this.aheadMs = aheadMs;
+        this.aheadBytes = aheadBytes;
+        notifyAll();
+    }
+
+    /**
+     * 暂停或者暂停中seek时调用，按新的播放位置限制
+     */
+    synchronized void pause(String url, long positionMs, long durationMs) {
+        pausedUrls.put(url, new long[]{positionMs, durationMs});
+        bytesSincePause = 0;
+        notifyAll();
+    }
+
+    synchronized void resume(String url) {
+        pausedUrls.remove(url);
+        notifyAll();
+    }
+
+    /**
+     * 解除所有地址的限制
+     */
+    synchronized void resume() {
+        pausedUrls.clear();
+        notifyAll();
+    }
+
+    synchronized boolean isPaused() {
+        return !pausedUrls.isEmpty();
+    }
+
+    /**
+     * 是否允许从网络拉取position处的数据
+     */
+    synchronized boolean isAllowed(String url, long position, long length) {
+        if (pausedUrls.isEmpty()) {
+            return true;
+        }
+        long[] paused = pausedUrls.get(url);
+        if (paused != null && length > 0 && paused[1] > 0) {
+            //按平均码率把播放位置换算成字节偏移
+            long playhead = length * paused[0] / paused[1];
+            long limit = aheadMs > 0 ? length * (paused[0] + aheadMs) / paused[1] : playhead + aheadBytes;
+            return position < limit;
+        }
+        return bytesSincePause < aheadBytes;
+    }
+
+    synchronized void onFetched(int bytes) {
+        if (!pausedUrls.isEmpty()) {
+            bytesSincePause += bytes;
+        }
+    }
+
+    /**
+     * 不允许拉取时阻塞，直到继续播放，最多等待{@link #MAX_WAIT_TIME}
+     */
+    synchronized void awaitFetch(String url, long position, long length) throws InterruptedIOException {
+        long deadline = System.currentTimeMillis() + MAX_WAIT_TIME;
+        while (!isAllowed(url, position, length)) {
+            long remain = deadline - System.currentTimeMillis();
+            if (remain <= 0) {
+                throw new InterruptedIOException("paused fetch wait timed out");
+            }
+            try {
+                wait(remain);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
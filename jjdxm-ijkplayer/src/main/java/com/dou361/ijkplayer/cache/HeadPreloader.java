@@ -0,0 +1,112 @@
+package com.dou361.ijkplayer.cache;
+
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 预先缓存视频的文件头和开头几秒，打开视频时首帧直接从本地读取。
+ * mp4文件缓存ftyp、moov以及mdat开头的一段数据，其它格式缓存文件开头固定大小
+ *
+ * @date 2026/10/17
+ */
+class HeadPreloader implements Runnable {
+
+    /**
+     * 第一次请求的大小，一般能覆盖ftyp和前置的moov
+     */
+    private static final int PROBE_SIZE = 64 * 1024;
+
+    /**
+     * 预加载开头的秒数
+     */
+    private static final int HEAD_SECONDS = 5;
+
+    private static final long MIN_OPENING_SIZE = 256 * 1024;
+    private static final long MAX_OPENING_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * 无法解析mp4时预加载的大小
+     */
+    private static final long DEFAULT_HEAD_SIZE = 1024 * 1024;
+
+    private final VideoCacheProxy proxy;
+
+    private final String url;
+
+    /**
+     * 取消信号，为null时不能取消
+     */
+    private final CancelSignal signal;
+
+    HeadPreloader(VideoCacheProxy proxy, String url) {
+        this(proxy, url, null);
+    }
+
+    HeadPreloader(VideoCacheProxy proxy, String url, CancelSignal signal) {
+        this.proxy = proxy;
+        this.url = url;
+        this.signal = signal;
+    }
+
+    @Override
+    public void run() {
+        CacheFile cacheFile = null;
+        try {
+            cacheFile = proxy.acquireCacheFile(url);
+            preload(cacheFile);
+        } catch (IOException e) {
+            if (signal == null || !signal.isCanceled()) {
+                e.printStackTrace();
+            }
+        } finally {
+            if (cacheFile != null) {
+                proxy.releaseCacheFile(cacheFile);
+            }
+            proxy.onPreloadFinished(url);
+        }
+    }
+
+    private void preload(final CacheFile cacheFile) throws IOException {
+        final OkHttpClient client = proxy.getHttpClient();
+        long length = Upstream.fetchLength(client, cacheFile, url, signal);
+        if (length <= 0 || cacheFile.isCompleted()) {
+            return;
+        }
+        Upstream.fill(client, cacheFile, url, 0, PROBE_SIZE, NetworkScheduler.PRIORITY_PREFETCH, signal);
+        Mp4Layout layout = Mp4Layout.read(cacheFile, new Mp4Layout.RangeLoader() {
+            @Override
+            public void load(long start, long end) throws IOException {
+                Upstream.fill(client, cacheFile, url, start, end, NetworkScheduler.PRIORITY_PREFETCH, signal);
+            }
+        });
+        if (layout == null) {
+            Upstream.fill(client, cacheFile, url, 0, DEFAULT_HEAD_SIZE, NetworkScheduler.PRIORITY_PREFETCH, signal);
+            return;
+        }
+        //moov在前面时一次请求连续读完，在后面时单独请求文件尾部
+        if (layout.isMoovAtEnd()) {
+            Upstream.fill(client, cacheFile, url, layout.moovOffset, layout.getMoovEnd(), NetworkScheduler.PRIORITY_PREFETCH, signal);
+        } else {
+            Upstream.fill(client, cacheFile, url, 0, layout.getMoovEnd(), NetworkScheduler.PRIORITY_PREFETCH, signal);
+        }
+        if (layout.mdatOffset >= 0) {
+            long openingEnd = layout.mdatOffset + getOpeningSize(layout, length);
+            Upstream.fill(client, cacheFile, url, 0, Math.min(openingEnd, layout.mdatOffset + layout.mdatSize), NetworkScheduler.PRIORITY_PREFETCH, signal);
+        }
+    }
+
+    /**
+     * 按平均码率估算开头几秒的字节数，覆盖第一个GOP
+     */
+    static long getOpeningSize(Mp4Layout layout, long length) {
+        long durationMs = layout.getDurationMs();
+        if (durationMs <= 0) {
+            return DEFAULT_HEAD_SIZE;
+        }
+        long size = length * HEAD_SECONDS * 1000 / durationMs;
+        return Math.max(MIN_OPENING_SIZE, Math.min(MAX_OPENING_SIZE, size));
+    }
+}
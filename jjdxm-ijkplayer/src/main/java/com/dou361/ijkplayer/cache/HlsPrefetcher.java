@@ -0,0 +1,206 @@
+package com.dou361.ijkplayer.cache;
+
+import com.dou361.ijkplayer.utils.M3u8Parser;
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * HLS分片预取，播放器请求一个分片时，把后面的几个分片提前下载到缓存。
+ * 预取的时长按带宽和分片码率的比值调整，播放器缓冲不足时只预取下一个分片，不和播放器抢带宽，
+ * 播放器请求到还在预取的分片时取消预取，同一个分片不会下载两次
+ *
+ * @date 2026/10/17
+ */
+class HlsPrefetcher {
+
+    /**
+     * 预取的最大分片数
+     */
+    private static final int MAX_PREFETCH_SEGMENTS = 6;
+
+    /**
+     * 带宽和码率相当时预取的时长
+     */
+    private static final long BASE_AHEAD_MS = 20 * 1000;
+    private static final long MIN_AHEAD_MS = 10 * 1000;
+    private static final long MAX_AHEAD_MS = 60 * 1000;
+
+    /**
+     * 播放器缓冲低于这个值时只预取下一个分片
+     */
+    private static final long LOW_BUFFER_MS = 5 * 1000;
+
+    /**
+     * 带宽和码率的平滑系数，新样本的权重
+     */
+    private static final float EWMA_WEIGHT = 0.3f;
+
+    private final VideoCacheProxy proxy;
+
+    private final ExecutorService executorService;
+
+    /**
+     * 分片地址在当前播放列表中的位置
+     */
+    private final Map<String, Integer> segmentIndex = new HashMap<>();
+
+    private List<M3u8Parser.Segment> segments;
+
+    /**
+     * 各个分片在播放列表中的开始时间，单位毫秒
+     */
+    private long[] segmentStartMs;
+
+    /**
+     * 已经安排预取的分片和取消信号，播放器请求到正在预取的分片时取消预取，由播放器连接按播放优先级下载
+     */
+    private final Map<String, CancelSignal> scheduledFetches = new HashMap<>();
+
+    /**
+     * 下载带宽和分片码率，单位字节/秒，0为未知
+     */
+    private long bandwidth;
+    private long bitrate;
+
+    HlsPrefetcher(VideoCacheProxy proxy) {
+        this.proxy = proxy;
+        executorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("hls-prefetch-pool-%d").build());
+    }
+
+    /**
+     * 代理下载到新的媒体播放列表，直播时每次刷新都会调用
+     */
+    synchronized void onPlaylist(M3u8Parser.MediaPlaylist playlist) {
+        segments = playlist.segments;
+        segmentIndex.clear();
+        segmentStartMs = new long[segments.size()];
+        long startMs = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            segmentIndex.put(segments.get(i).url, i);
+            segmentStartMs[i] = startMs;
+            startMs += segments.get(i).durationMs;
+        }
+        for (String keyUrl : playlist.keyUrls) {
+            schedule(keyUrl, 0);
+        }
+    }
+
+    /**
+     * 播放器请求分片时调用，安排后面分片的预取
+     */
+    synchronized void onSegmentRequested(String url) {
+        CancelSignal claimed = scheduledFetches.get(url);
+        if (claimed != null) {
+            //已经预取的部分播放器直接从缓存读取，剩下的不再按预取优先级重复下载
+            claimed.cancel();
+        }
+        Integer index = segmentIndex.get(url);
+        if (index == null || proxy.getFetchLimiter().isPaused()) {
+            return;
+        }
+        long targetAheadMs = getTargetAheadMs();
+        long playerBufferMs = NetworkScheduler.getInstance().getPlaybackBufferMs();
+        long aheadMs = 0;
+        int count = 0;
+        for (int i = index + 1; i < segments.size() && count < MAX_PREFETCH_SEGMENTS && aheadMs < targetAheadMs; i++) {
+            M3u8Parser.Segment segment = segments.get(i);
+            if (!proxy.getPreviewFence().isSegmentAllowed(segment.url)) {
+                break;
+            }
+            schedule(segment.url, segment.durationMs);
+            aheadMs += segment.durationMs;
+            count++;
+            if (playerBufferMs >= 0 && playerBufferMs < LOW_BUFFER_MS) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 分片在当前播放列表中的开始时间，不在列表中时返回-1
+     */
+    synchronized long getSegmentStartMs(String url) {
+        Integer index = segmentIndex.get(url);
+        return index == null ? -1 : segmentStartMs[index];
+    }
+
+    /**
+     * 带宽越富余预取越多，带宽不足时保持最小预取
+     */
+    private long getTargetAheadMs() {
+        if (bandwidth <= 0 || bitrate <= 0) {
+            return BASE_AHEAD_MS;
+        }
+        long aheadMs = BASE_AHEAD_MS * bandwidth / bitrate;
+        return Math.max(MIN_AHEAD_MS, Math.min(MAX_AHEAD_MS, aheadMs));
+    }
+
+    private void schedule(final String url, final long durationMs) {
+        if (scheduledFetches.containsKey(url)) {
+            return;
+        }
+        final CancelSignal signal = new CancelSignal();
+        scheduledFetches.put(url, signal);
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prefetch(url, durationMs, signal);
+                } catch (IOException e) {
+                    if (!signal.isCanceled()) {
+                        e.printStackTrace();
+                    }
+                } finally {
+                    synchronized (HlsPrefetcher.this) {
+                        scheduledFetches.remove(url);
+                    }
+                }
+            }
+        });
+    }
+
+    private void prefetch(String url, long durationMs, CancelSignal signal) throws IOException {
+        if (signal.isCanceled()) {
+            return;
+        }
+        CacheFile cacheFile = proxy.acquireCacheFile(url);
+        try {
+            if (cacheFile.isCompleted()) {
+                return;
+            }
+            OkHttpClient client = proxy.getHttpClient();
+            long startTime = System.currentTimeMillis();
+            long length = Upstream.fetchLength(client, cacheFile, url);
+            if (length <= 0) {
+                return;
+            }
+            long cachedSize = cacheFile.getCachedSize();
+            Upstream.fill(client, cacheFile, url, 0, length, NetworkScheduler.PRIORITY_PREFETCH, signal);
+            long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            updateRates(length - cachedSize, elapsed, length, durationMs);
+        } finally {
+            proxy.releaseCacheFile(cacheFile);
+        }
+    }
+
+    private synchronized void updateRates(long bytes, long elapsed, long length, long durationMs) {
+        if (bytes > 0) {
+            long sample = bytes * 1000 / elapsed;
+            bandwidth = bandwidth <= 0 ? sample : (long) (bandwidth * (1 - EWMA_WEIGHT) + sample * EWMA_WEIGHT);
+        }
+        if (durationMs > 0) {
+            long sample = length * 1000 / durationMs;
+            bitrate = bitrate <= 0 ? sample : (long) (bitrate * (1 - EWMA_WEIGHT) + sample * EWMA_WEIGHT);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.dou361.ijkplayer.cache;
+
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okhttp3.Response;
+
+/**
+ * 直播时移录制，持续拉取flv直播流按tag写入环形缓冲，
+ * 网络断开时自动重连，重连后的时间戳接在断开前的后面，播放器连接感知不到中断
+ *
+ * @date 2026/10/17
+ */
+class LiveRecorder implements Runnable {
+
+    private static final int TAG_HEADER_SIZE = 11;
+    private static final int TAG_AUDIO = 8;
+    private static final int TAG_VIDEO = 9;
+    private static final int TAG_SCRIPT = 18;
+
+    /**
+     * 重连等待时间，连续失败时逐渐增加
+     */
+    private static final long RECONNECT_DELAY_MS = 500;
+    private static final long MAX_RECONNECT_DELAY_MS = 5 * 1000;
+
+    /**
+     * 没有播放器连接超过这个时间就停止录制
+     */
+    private static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+    private final VideoCacheProxy proxy;
+
+    private final String url;
+
+    private final LiveRingBuffer ringBuffer;
+
+    private volatile boolean stopped;
+
+    private Response response;
+
+    private int readers;
+
+    private long idleSince = System.currentTimeMillis();
+
+    /**
+     * 已经写入的最后一个时间戳，重连后用来接续时间戳
+     */
+    private long lastTimestamp = -1;
+
+    private long timestampOffset;
+
+    LiveRecorder(VideoCacheProxy proxy, String url, File file, long capacity, long maxDurationMs) throws IOException {
+        this.proxy = proxy;
+        this.url = url;
+        this.ringBuffer = new LiveRingBuffer(file, capacity, maxDurationMs);
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    LiveRingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    synchronized void onReaderStarted() {
+        readers++;
+    }
+
+    synchronized void onReaderFinished() {
+        readers--;
+        if (readers <= 0) {
+            idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private synchronized boolean isIdle() {
+        return readers <= 0 && System.currentTimeMillis() - idleSince > IDLE_TIMEOUT_MS;
+    }
+
+    void stop() {
+        stopped = true;
+        closeResponse();
+    }
+
+    @Override
+    public void run() {
+        long delay = RECONNECT_DELAY_MS;
+        try {
+            while (!stopped && !isIdle()) {
+                try {
+                    record();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    closeResponse();
+                }
+                if (lastTimestamp >= 0) {
+                    //收到过数据说明地址可用，重新开始计算重连等待
+                    delay = RECONNECT_DELAY_MS;
+                }
+                if (stopped) {
+                    break;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MS);
+            }
+        } finally {
+            stopped = true;
+            ringBuffer.close();
+            proxy.onLiveRecorderFinished(this);
+        }
+    }
+
+    /**
+     * 打开一次直播流并录制到断开为止
+     */
+    private void record() throws IOException {
+        Response current = Upstream.open(proxy.getHttpClient(), url, 0, -1);
+        synchronized (this) {
+            if (stopped) {
+                current.close();
+                return;
+            }
+            response = current;
+        }
+        InputStream in = current.body().byteStream();
+        byte[] header = new byte[9];
+        readFully(in, header, 0, header.length);
+        if (header[0] != 'F' || header[1] != 'L' || header[2] != 'V') {
+            throw new IOException("not a flv stream");
+        }
+        int dataOffset = readInt(header, 5, 4);
+        Upstream.skipFully(in, dataOffset - header.length + 4);
+        if (!ringBuffer.hasHeader()) {
+            //统一成标准的9字节文件头加PreviousTagSize0
+            byte[] flvHeader = new byte[13];
+            System.arraycopy(header, 0, flvHeader, 0, header.length);
+            flvHeader[8] = 9;
+            ringBuffer.setFlvHeader(flvHeader);
+        }
+        long sessionStart = -1;
+        byte[] tag = new byte[64 * 1024];
+        while (!stopped && !isIdle()) {
+            readFully(in, tag, 0, TAG_HEADER_SIZE);
+            int type = tag[0] & 0x1f;
+            int dataSize = readInt(tag, 1, 3);
+            int length = TAG_HEADER_SIZE + dataSize + 4;
+            if (length > tag.length) {
+                byte[] larger = new byte[length];
+                System.arraycopy(tag, 0, larger, 0, TAG_HEADER_SIZE);
+                tag = larger;
+            }
+            readFully(in, tag, TAG_HEADER_SIZE, dataSize + 4);
+            long timestamp = readInt(tag, 4, 3) | ((long) (tag[7] & 0xff) << 24);
+            if (sessionStart < 0) {
+                sessionStart = timestamp;
+                //重连后服务器的时间戳可能从头开始，接在上一次的后面
+                timestampOffset = lastTimestamp < 0 ? 0 : lastTimestamp + 1 - timestamp;
+            }
+            timestamp = Math.max(0, timestamp + timestampOffset);
+            writeTimestamp(tag, timestamp);
+            NetworkScheduler.getInstance().acquire(NetworkScheduler.PRIORITY_PLAYBACK, length);
+            if (type == TAG_SCRIPT) {
+                //metadata只在新连接的开头发送
+                ringBuffer.setHeaderTag(type, copyHeaderTag(tag, length));
+                continue;
+            }
+            if (dataSize < 2) {
+                continue;
+            }
+            boolean sequenceHeader = (type == TAG_VIDEO && (tag[TAG_HEADER_SIZE] & 0x0f) == 7 && tag[TAG_HEADER_SIZE + 1] == 0)
+                    || (type == TAG_AUDIO && ((tag[TAG_HEADER_SIZE] >> 4) & 0x0f) == 10 && tag[TAG_HEADER_SIZE + 1] == 0);
+            if (sequenceHeader) {
+                ringBuffer.setHeaderTag(type, copyHeaderTag(tag, length));
+            }
+            boolean keyframe = type == TAG_VIDEO && !sequenceHeader && ((tag[TAG_HEADER_SIZE] >> 4) & 0x0f) == 1;
+            ringBuffer.append(tag, length, keyframe, timestamp);
+            lastTimestamp = timestamp;
+        }
+    }
+
+    private void closeResponse() {
+        Response current;
+        synchronized (this) {
+            current = response;
+            response = null;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read < 0) {
+                throw new EOFException("live stream closed");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset, int size) {
+        int value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeTimestamp(byte[] tag, long timestamp) {
+        tag[4] = (byte) (timestamp >> 16);
+        tag[5] = (byte) (timestamp >> 8);
+        tag[6] = (byte) timestamp;
+        tag[7] = (byte) (timestamp >> 24);
+    }
+
+    /**
+     * 新连接开头发送的header tag时间戳置0，不会比后面的关键帧晚
+     */
+    private static byte[] copyHeaderTag(byte[] buffer, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, 0, copy, 0, length);
+        writeTimestamp(copy, 0);
+        return copy;
+    }
+}
@@ -0,0 +1,216 @@
+package com.dou361.ijkplayer.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 直播时移的磁盘环形缓冲，按flv tag整块写入，关键帧位置建立索引，
+ * 超出容量或者时长的数据被覆盖，读取只能从关键帧开始
+ *
+ * @date 2026/10/17
+ */
+class LiveRingBuffer {
+
+    /**
+     * 读取位置的数据已经被覆盖
+     */
+    static final int OVERWRITTEN = -2;
+
+    private static final int TAG_SCRIPT = 18;
+    private static final int TAG_VIDEO = 9;
+
+    private final File file;
+    private final RandomAccessFile dataAccess;
+    private final long capacity;
+    private final long maxDurationMs;
+
+    /**
+     * 写入位置，逻辑偏移，一直递增
+     */
+    private long writePosition;
+
+    /**
+     * 关键帧索引，key为逻辑偏移，value为时间戳
+     */
+    private final TreeMap<Long, Long> keyframes = new TreeMap<>();
+
+    private long lastTimestamp = -1;
+
+    /**
+     * flv文件头，每个新连接先发送
+     */
+    private byte[] flvHeader;
+
+    /**
+     * 最新的metadata和音视频sequence header，每个新连接在文件头之后发送
+     */
+    private final Map<Integer, byte[]> headerTags = new TreeMap<>();
+
+    private boolean closed;
+
+    LiveRingBuffer(File file, long capacity, long maxDurationMs) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.maxDurationMs = maxDurationMs;
+        dataAccess = new RandomAccessFile(file, "rw");
+        dataAccess.setLength(0);
+    }
+
+    synchronized void setFlvHeader(byte[] header) {
+        flvHeader = header;
+    }
+
+    synchronized void setHeaderTag(int type, byte[] tag) {
+        headerTags.put(type == TAG_SCRIPT ? 0 : type == TAG_VIDEO ? 1 : 2, tag);
+    }
+
+    /**
+     * 新连接开头发送的数据，文件头和各个header tag
+     */
+    synchronized byte[] getHeaderBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (flvHeader != null) {
+            out.write(flvHeader, 0, flvHeader.length);
+        }
+        for (byte[] tag : headerTags.values()) {
+            out.write(tag, 0, tag.length);
+        }
+        return out.toByteArray();
+    }
+
+    synchronized boolean hasHeader() {
+        return flvHeader != null;
+    }
+
+    /**
+     * 写入一个完整的tag，包括tag头、数据和PreviousTagSize
+     */
+    synchronized void append(byte[] tag, int length, boolean keyframe, long timestamp) throws IOException {
+        if (closed || length > capacity) {
+            return;
+        }
+        if (keyframe) {
+            keyframes.put(writePosition, timestamp);
+        }
+        int physical = (int) (writePosition % capacity);
+        int first = (int) Math.min(length, capacity - physical);
+        dataAccess.seek(physical);
+        dataAccess.write(tag, 0, first);
+        if (first < length) {
+            dataAccess.seek(0);
+            dataAccess.write(tag, first, length - first);
+        }
+        writePosition += length;
+        lastTimestamp = timestamp;
+        //淘汰超出时移时长的关键帧，以及tag开头已经被覆盖的关键帧，开头被覆盖时整个tag都不完整了
+        long overwritten = writePosition - capacity;
+        while (!keyframes.isEmpty()) {
+            Map.Entry<Long, Long> oldest = keyframes.firstEntry();
+            if (oldest.getKey() < overwritten || timestamp - oldest.getValue() > maxDurationMs) {
+                keyframes.remove(oldest.getKey());
+            } else {
+                break;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * 找到距离直播最新位置offsetMs之前的关键帧，没有关键帧时返回-1
+     */
+    synchronized long findKeyframe(long offsetMs) {
+        if (keyframes.isEmpty()) {
+            return -1;
+        }
+        long target = lastTimestamp - Math.max(0, offsetMs);
+        for (Map.Entry<Long, Long> entry : keyframes.descendingMap().entrySet()) {
+            if (entry.getValue() <= target) {
+                return entry.getKey();
+            }
+        }
+        return keyframes.firstKey();
+    }
+
+    /**
+     * 等待出现第一个关键帧
+     */
+    synchronized long awaitKeyframe(long offsetMs, long timeoutMs) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long position;
+        while ((position = findKeyframe(offsetMs)) < 0 || !hasHeader()) {
+            long remain = deadline - System.currentTimeMillis();
+            if (closed || remain <= 0) {
+                return -1;
+            }
+            try {
+                wait(remain);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 最早还能读取的关键帧位置，没有关键帧时返回-1
+     */
+    synchronized long getOldestKeyframe() {
+        return keyframes.isEmpty() ? -1 : keyframes.firstKey();
+    }
+
+    /**
+     * 可以回看的时长，单位毫秒
+     */
+    synchronized long getAvailableDurationMs() {
+        return keyframes.isEmpty() ? 0 : lastTimestamp - keyframes.firstEntry().getValue();
+    }
+
+    /**
+     * 读取数据，没有新数据时等待，超时返回0，关闭后返回-1，数据被覆盖时返回{@link #OVERWRITTEN}
+     */
+    synchronized int read(long position, byte[] buffer, int offset, int size, long timeoutMs) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (position >= writePosition && !closed) {
+            long remain = deadline - System.currentTimeMillis();
+            if (remain <= 0) {
+                return 0;
+            }
+            try {
+                wait(remain);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        if (closed) {
+            return -1;
+        }
+        if (position < writePosition - capacity) {
+            return OVERWRITTEN;
+        }
+        int length = (int) Math.min(size, writePosition - position);
+        int physical = (int) (position % capacity);
+        int first = (int) Math.min(length, capacity - physical);
+        dataAccess.seek(physical);
+        dataAccess.readFully(buffer, offset, first);
+        if (first < length) {
+            dataAccess.seek(0);
+            dataAccess.readFully(buffer, offset + first, length - first);
+        }
+        return length;
+    }
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+        try {
+            dataAccess.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+}
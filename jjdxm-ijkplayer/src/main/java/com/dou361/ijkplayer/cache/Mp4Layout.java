@@ -0,0 +1,381 @@
+package com.dou361.ijkplayer.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * mp4文件顶层box的布局，找出moov和mdat的位置以及视频时长
+ *
+ * @date 2026/10/17
+ */
+class Mp4Layout {
+
+    /**
+     * 需要的数据不在缓存中时，由调用方负责加载
+     */
+    interface RangeLoader {
+        void load(long start, long end) throws IOException;
+    }
+
+    private static final int BOX_HEADER_SIZE = 16;
+
+    /**
+     * 最多解析的顶层box数量，防止异常文件死循环
+     */
+    private static final int MAX_TOP_BOXES = 32;
+
+    /**
+     * 解析采样表时moov的最大大小，超过时只按平均码率估算
+     */
+    private static final int MAX_MOOV_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 一个轨道的采样表，用于把时间换算成文件偏移
+     */
+    private static class Track {
+        long timescale;
+        long[] sampleCounts;
+        long[] sampleDeltas;
+        long[] firstChunks;
+        long[] samplesPerChunk;
+        long[] chunkOffsets;
+    }
+
+    long moovOffset = -1;
+    long moovSize;
+    long mdatOffset = -1;
+    long mdatSize;
+    long timescale;
+    long duration;
+
+    private final List<Track> tracks = new ArrayList<>();
+
+    /**
+     * moov是否在mdat后面，这种文件需要先读到文件结尾才能开始播放
+     */
+    boolean isMoovAtEnd() {
+        return moovOffset > mdatOffset && mdatOffset >= 0;
+    }
+
+    long getMoovEnd() {
+        return moovOffset + moovSize;
+    }
+
+    /**
+     * 视频时长，单位毫秒，未知时为-1
+     */
+    long getDurationMs() {
+        if (timescale <= 0 || duration <= 0) {
+            return -1;
+        }
+        return duration * 1000 / timescale;
+    }
+
+    /**
+     * 播放到timeMs需要的数据结束位置，按每个轨道的采样表找到timeMs所在的chunk，取下一个chunk的开始位置，
+     * 码率波动大的视频也不会提前截断，没有采样表时返回-1
+     */
+    long getOffsetForTime(long timeMs) {
+        if (tracks.isEmpty()) {
+            return -1;
+        }
+        long limit = -1;
+        for (Track track : tracks) {
+            if (track.sampleCounts.length == 0 || track.chunkOffsets.length == 0) {
+                //没有采样的轨道不影响播放
+                continue;
+            }
+            long offset = getTrackOffsetForTime(track, timeMs);
+            if (offset < 0) {
+                return -1;
+            }
+            limit = Math.max(limit, offset);
+        }
+        return limit;
+    }
+
+    private long getTrackOffsetForTime(Track track, long timeMs) {
+        long mdatEnd = mdatOffset >= 0 ? mdatOffset + mdatSize : -1;
+        //时间换算成采样序号
+        long time = timeMs * track.timescale / 1000;
+        long sample = 0;
+        boolean found = false;
+        for (int i = 0; i < track.sampleCounts.length; i++) {
+            long runDuration = track.sampleCounts[i] * track.sampleDeltas[i];
+            if (time < runDuration) {
+                sample += track.sampleDeltas[i] > 0 ? time / track.sampleDeltas[i] : 0;
+                found = true;
+                break;
+            }
+            time -= runDuration;
+            sample += track.sampleCounts[i];
+        }
+        if (!found) {
+            return mdatEnd;
+        }
+        //采样序号换算成chunk序号
+        int chunkCount = track.chunkOffsets.length;
+        long chunk = -1;
+        for (int i = 0; i < track.firstChunks.length; i++) {
+            long first = track.firstChunks[i] - 1;
+            long next = i + 1 < track.firstChunks.length ? track.firstChunks[i + 1] - 1 : chunkCount;
+            long perChunk = track.samplesPerChunk[i];
+            if (perChunk <= 0 || next <= first) {
+                continue;
+            }
+            long runSamples = (next - first) * perChunk;
+            if (sample < runSamples) {
+                chunk = first + sample / perChunk;
+                break;
+            }
+            sample -= runSamples;
+        }
+        if (chunk < 0 || chunk + 1 >= chunkCount) {
+            return mdatEnd;
+        }
+        return track.chunkOffsets[(int) chunk + 1];
+    }
+
+    /**
+     * 读取整个moov，解析每个轨道的采样表，之后可以用{@link #getOffsetForTime(long)}精确换算
+     */
+    void readSampleTables(CacheFile cacheFile, RangeLoader loader) throws IOException {
+        if (moovSize <= 8 || moovSize > MAX_MOOV_SIZE) {
+            return;
+        }
+        byte[] moov = new byte[(int) moovSize];
+        if (!readFully(cacheFile, loader, moovOffset, moov, moov.length)) {
+            return;
+        }
+        List<Track> parsed = new ArrayList<>();
+        int offset = 8;
+        while (offset + 8 <= moov.length) {
+            int size = getBoxSize(moov, offset, moov.length);
+            if (size < 0) {
+                return;
+            }
+            if ("trak".equals(getBoxType(moov, offset))) {
+                Track track = parseTrack(moov, offset + 8, offset + size);
+                if (track == null) {
+                    return;
+                }
+                parsed.add(track);
+            }
+            offset += size;
+        }
+        tracks.addAll(parsed);
+    }
+
+    /**
+     * 解析trak中的mdhd和stbl，缺少任何一个表时返回null
+     */
+    private static Track parseTrack(byte[] data, int start, int end) throws IOException {
+        int mdia = findBox(data, start, end, "mdia");
+        if (mdia < 0) {
+            return null;
+        }
+        int mdiaEnd = mdia + getBoxSize(data, mdia, end);
+        int mdhd = findBox(data, mdia + 8, mdiaEnd, "mdhd");
+        int minf = findBox(data, mdia + 8, mdiaEnd, "minf");
+        if (mdhd < 0 || minf < 0) {
+            return null;
+        }
+        int minfEnd = minf + getBoxSize(data, minf, mdiaEnd);
+        int stbl = findBox(data, minf + 8, minfEnd, "stbl");
+        if (stbl < 0) {
+            return null;
+        }
+        int stblEnd = stbl + getBoxSize(data, stbl, minfEnd);
+        int stts = findBox(data, stbl + 8, stblEnd, "stts");
+        int stsc = findBox(data, stbl + 8, stblEnd, "stsc");
+        int stco = findBox(data, stbl + 8, stblEnd, "stco");
+        int co64 = findBox(data, stbl + 8, stblEnd, "co64");
+        if (stts < 0 || stsc < 0 || (stco < 0 && co64 < 0)) {
+            return null;
+        }
+        Track track = new Track();
+        int mdhdEnd = mdhd + getBoxSize(data, mdhd, mdiaEnd);
+        if (mdhd + 12 > mdhdEnd) {
+            return null;
+        }
+        int version = data[mdhd + 8] & 0xff;
+        int timescaleOffset = mdhd + (version == 1 ? 28 : 20);
+        if (timescaleOffset + 4 > mdhdEnd) {
+            return null;
+        }
+        track.timescale = readUInt32(data, timescaleOffset);
+        if (track.timescale <= 0) {
+            return null;
+        }
+        long[][] timeToSample = readTable(data, stts, stblEnd, 2, 4);
+        long[][] sampleToChunk = readTable(data, stsc, stblEnd, 3, 4);
+        long[][] offsets = stco >= 0 ? readTable(data, stco, stblEnd, 1, 4) : readTable(data, co64, stblEnd, 1, 8);
+        if (timeToSample == null || sampleToChunk == null || offsets == null) {
+            return null;
+        }
+        track.sampleCounts = timeToSample[0];
+        track.sampleDeltas = timeToSample[1];
+        track.firstChunks = sampleToChunk[0];
+        track.samplesPerChunk = sampleToChunk[1];
+        track.chunkOffsets = offsets[0];
+        return track;
+    }
+
+    /**
+     * 读取full box中的表，每条记录有columns个字段，每个字段fieldSize字节，按列返回
+     */
+    private static long[][] readTable(byte[] data, int box, int end, int columns, int fieldSize) {
+        int boxEnd = box + getBoxSize(data, box, end);
+        int offset = box + 12;
+        if (offset + 4 > boxEnd) {
+            return null;
+        }
+        long count = readUInt32(data, offset);
+        offset += 4;
+        if (count > (boxEnd - offset) / (columns * fieldSize)) {
+            return null;
+        }
+        long[][] table = new long[columns][(int) count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < columns; j++) {
+                table[j][i] = fieldSize == 8
+                        ? (readUInt32(data, offset) << 32) | readUInt32(data, offset + 4)
+                        : readUInt32(data, offset);
+                offset += fieldSize;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 在[start, end)中查找指定类型的子box，返回box的开始位置，没有时返回-1
+     */
+    private static int findBox(byte[] data, int start, int end, String type) throws IOException {
+        int offset = start;
+        while (offset + 8 <= end) {
+            int size = getBoxSize(data, offset, end);
+            if (size < 0) {
+                return -1;
+            }
+            if (type.equals(getBoxType(data, offset))) {
+                return offset;
+            }
+            offset += size;
+        }
+        return -1;
+    }
+
+    /**
+     * moov中的子box大小，超出父box范围时返回-1
+     */
+    private static int getBoxSize(byte[] data, int offset, int end) {
+        long size = readUInt32(data, offset);
+        if (size == 0) {
+            size = end - offset;
+        }
+        if (size < 8 || offset + size > end) {
+            return -1;
+        }
+        return (int) size;
+    }
+
+    private static String getBoxType(byte[] data, int offset) throws IOException {
+        return new String(data, offset + 4, 4, "ISO-8859-1");
+    }
+
+    /**
+     * 解析顶层box，不是mp4或者缺少moov时返回null
+     */
+    static Mp4Layout read(CacheFile cacheFile, RangeLoader loader) throws IOException {
+        long length = cacheFile.getLength();
+        if (length <= 0) {
+            return null;
+        }
+        Mp4Layout layout = new Mp4Layout();
+        byte[] header = new byte[BOX_HEADER_SIZE];
+        long offset = 0;
+        for (int i = 0; i < MAX_TOP_BOXES && offset + 8 <= length; i++) {
+            int headerSize = (int) Math.min(BOX_HEADER_SIZE, length - offset);
+            if (!readFully(cacheFile, loader, offset, header, headerSize)) {
+                return null;
+            }
+            long size = readUInt32(header, 0);
+            String type = new String(header, 4, 4, "ISO-8859-1");
+            if (i == 0 && !"ftyp".equals(type)) {
+                return null;
+            }
+            int boxHeaderSize = 8;
+            if (size == 1 && headerSize >= 16) {
+                size = (readUInt32(header, 8) << 32) | readUInt32(header, 12);
+                boxHeaderSize = 16;
+            } else if (size == 0) {
+                size = length - offset;
+            }
+            if (size < boxHeaderSize) {
+                return null;
+            }
+            if ("moov".equals(type)) {
+                layout.moovOffset = offset;
+                layout.moovSize = size;
+            } else if ("mdat".equals(type)) {
+                layout.mdatOffset = offset;
+                layout.mdatSize = size;
+            }
+            offset += size;
+            if (layout.moovOffset >= 0 && layout.mdatOffset >= 0) {
+                break;
+            }
+        }
+        if (layout.moovOffset < 0) {
+            return null;
+        }
+        layout.readMovieHeader(cacheFile, loader);
+        return layout;
+    }
+
+    /**
+     * moov中第一个子box一般是mvhd，从中读出timescale和duration
+     */
+    private void readMovieHeader(CacheFile cacheFile, RangeLoader loader) throws IOException {
+        byte[] mvhd = new byte[40];
+        long offset = moovOffset + 8;
+        if (offset + mvhd.length > getMoovEnd() || !readFully(cacheFile, loader, offset, mvhd, mvhd.length)) {
+            return;
+        }
+        if (!"mvhd".equals(new String(mvhd, 4, 4, "ISO-8859-1"))) {
+            return;
+        }
+        int version = mvhd[8] & 0xff;
+        if (version == 1) {
+            timescale = readUInt32(mvhd, 28);
+            duration = (readUInt32(mvhd, 32) << 32) | readUInt32(mvhd, 36);
+        } else {
+            timescale = readUInt32(mvhd, 20);
+            duration = readUInt32(mvhd, 24);
+        }
+    }
+
+    private static boolean readFully(CacheFile cacheFile, RangeLoader loader, long position, byte[] buffer, int size) throws IOException {
+        if (cacheFile.available(position) < size) {
+            loader.load(position, position + size);
+            if (cacheFile.available(position) < size) {
+                return false;
+            }
+        }
+        int total = 0;
+        while (total < size) {
+            int read = cacheFile.read(position + total, buffer, total, size - total);
+            if (read <= 0) {
+                return false;
+            }
+            total += read;
+        }
+        return true;
+    }
+
+    private static long readUInt32(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xffL) << 24) | ((buffer[offset + 1] & 0xffL) << 16)
+                | ((buffer[offset + 2] & 0xffL) << 8) | (buffer[offset + 3] & 0xffL);
+    }
+}
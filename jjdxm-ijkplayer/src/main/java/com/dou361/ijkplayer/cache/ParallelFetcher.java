@@ -0,0 +1,236 @@
+package com.dou361.ijkplayer.cache;
+
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 多连接并行下载播放位置之后的数据，按块分配给多个连接，播放器连接按顺序从缓存读取。
+ * 连接数根据实际吞吐量爬山调整，增加连接吞吐量明显上升时继续增加，下降时反向调整，
+ * 服务器不支持区间请求时不并行下载
+ *
+ * @date 2026/10/17
+ */
+class ParallelFetcher {
+
+    /**
+     * 每个连接一次下载的块大小，按文件偏移对齐
+     */
+    static final int CHUNK_SIZE = 512 * 1024;
+
+    /**
+     * 缺失区间超过这个大小才并行下载
+     */
+    static final long MIN_PARALLEL_SIZE = 2L * CHUNK_SIZE;
+
+    /**
+     * 播放位置之后并行下载的块数
+     */
+    private static final int WINDOW_CHUNKS = 8;
+
+    private static final int MIN_CONNECTIONS = 1;
+    private static final int MAX_CONNECTIONS = 4;
+
+    /**
+     * 吞吐量采样周期
+     */
+    private static final long SAMPLE_INTERVAL = 2000;
+
+    /**
+     * 等待数据的超时时间
+     */
+    private static final long AWAIT_TIMEOUT = 15 * 1000;
+
+    /**
+     * 上一次调整后的连接数，新的下载从这个值开始
+     */
+    private static volatile int lastConnections = 2;
+
+    private final VideoCacheProxy proxy;
+    private final CacheFile cacheFile;
+    private final String url;
+
+    /**
+     * 等待下载的区间，每项为{start, end}
+     */
+    private final List<long[]> pendingChunks = new ArrayList<>();
+
+    /**
+     * 正在下载的块的起始位置
+     */
+    private final Set<Long> runningChunks = new HashSet<>();
+
+    private int targetConnections = lastConnections;
+    private int activeWorkers;
+    private IOException error;
+    private boolean canceled;
+
+    private long sampleStartTime;
+    private long sampleBytes;
+    private long lastThroughput;
+    private int direction = 1;
+
+    ParallelFetcher(VideoCacheProxy proxy, CacheFile cacheFile, String url) {
+        this.proxy = proxy;
+        this.cacheFile = cacheFile;
+        this.url = url;
+    }
+
+    /**
+     * 安排下载position之后的窗口，并等待position处有数据可读
+     */
+    synchronized void awaitAvailable(long position, long end) throws IOException {
+        schedule(position, end);
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+        while (cacheFile.available(position) <= 0) {
+            if (error != null) {
+                IOException e = error;
+                error = null;
+                throw e;
+            }
+            long remain = deadline - System.currentTimeMillis();
+            if (remain <= 0 || canceled) {
+                throw new IOException("wait for data timeout");
+            }
+            try {
+                wait(Math.min(remain, 200));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * 播放器连接断开时停止分配新的块，正在下载的块下载完后结束
+     */
+    synchronized void cancel() {
+        canceled = true;
+        pendingChunks.clear();
+        notifyAll();
+    }
+
+    private void schedule(long position, long end) {
+        long length = cacheFile.getLength();
+        long windowEnd = (position / CHUNK_SIZE + WINDOW_CHUNKS) * CHUNK_SIZE;
+        windowEnd = Math.min(windowEnd, end + 1);
+        if (length > 0) {
+            windowEnd = Math.min(windowEnd, length);
+        }
+        pendingChunks.clear();
+        for (long chunkStart = position / CHUNK_SIZE * CHUNK_SIZE; chunkStart < windowEnd; chunkStart += CHUNK_SIZE) {
+            long start = Math.max(chunkStart, position);
+            long chunkEnd = Math.min(chunkStart + CHUNK_SIZE, windowEnd);
+            if (runningChunks.contains(chunkStart) || cacheFile.available(start) >= chunkEnd - start) {
+                continue;
+            }
+            pendingChunks.add(new long[]{start, chunkEnd});
+        }
+        while (activeWorkers < getMaxConnections() && activeWorkers < pendingChunks.size()) {
+            activeWorkers++;
+            proxy.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            });
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            long next;
+            synchronized (this) {
+                if (canceled || pendingChunks.isEmpty() || activeWorkers > getMaxConnections()
+                        || cacheFile.isRangeUnsupported()) {
+                    activeWorkers--;
+                    return;
+                }
+                next = pendingChunks.get(0)[0];
+            }
+            //试看限制第一次判断时可能需要网络请求解析mp4布局，不持有锁判断
+            boolean allowed = proxy.getFetchLimiter().isAllowed(url, next, cacheFile.getLength())
+                    && isPreviewAllowed(next);
+            long[] chunk;
+            synchronized (this) {
+                if (!canceled && !pendingChunks.isEmpty() && pendingChunks.get(0)[0] != next) {
+                    //判断期间重新安排了下载窗口，按新的第一块重新判断
+                    continue;
+                }
+                if (!allowed || canceled || pendingChunks.isEmpty()) {
+                    activeWorkers--;
+                    return;
+                }
+                chunk = pendingChunks.remove(0);
+                runningChunks.add(chunk[0] / CHUNK_SIZE * CHUNK_SIZE);
+            }
+            CacheFile file = null;
+            try {
+                //播放器连接断开后缓存文件可能被关闭，下载期间单独持有一次引用
+                file = proxy.acquireCacheFile(url);
+                Upstream.fill(proxy.getHttpClient(), file, url, chunk[0], chunk[1], NetworkScheduler.PRIORITY_PLAYBACK);
+                onChunkFinished(chunk[1] - chunk[0]);
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                }
+            } finally {
+                if (file != null) {
+                    proxy.releaseCacheFile(file);
+                }
+                synchronized (this) {
+                    runningChunks.remove(chunk[0] / CHUNK_SIZE * CHUNK_SIZE);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * 确认服务器支持区间请求之前只用一个连接，服务器忽略Range时每个连接都会从头下载整个文件
+     */
+    private int getMaxConnections() {
+        return cacheFile.isRangeSupported() ? targetConnections : 1;
+    }
+
+    private boolean isPreviewAllowed(long position) {
+        try {
+            return proxy.getPreviewFence().isAllowed(url, cacheFile, position);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 按采样周期统计吞吐量，调整连接数
+     */
+    private synchronized void onChunkFinished(long bytes) {
+        long now = System.currentTimeMillis();
+        if (sampleStartTime == 0) {
+            sampleStartTime = now;
+        }
+        sampleBytes += bytes;
+        long elapsed = now - sampleStartTime;
+        if (elapsed < SAMPLE_INTERVAL) {
+            return;
+        }
+        long throughput = sampleBytes * 1000 / elapsed;
+        int step = 0;
+        if (lastThroughput <= 0 || throughput > lastThroughput * 11 / 10) {
+            //吞吐量上升，沿上次的方向继续调整
+            step = direction;
+        } else if (throughput < lastThroughput * 9 / 10) {
+            //上次调整让吞吐量下降，反向调整
+            direction = -direction;
+            step = direction;
+        }
+        targetConnections = Math.max(MIN_CONNECTIONS, Math.min(MAX_CONNECTIONS, targetConnections + step));
+        lastConnections = targetConnections;
+        lastThroughput = throughput;
+        sampleStartTime = now;
+        sampleBytes = 0;
+    }
+}
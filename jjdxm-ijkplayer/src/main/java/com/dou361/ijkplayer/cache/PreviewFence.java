@@ -0,0 +1,217 @@
+package com.dou361.ijkplayer.cache;
+
+import com.dou361.ijkplayer.utils.M3u8Parser;
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * 收费视频试看时的拉取范围限制，把试看时长换算成字节偏移或者分片，超出的部分不从网络拉取。
+ * mp4文件头和moov不受限制，moov在文件结尾时也能正常打开，mp4按采样表换算，其它格式按平均码率估算，
+ * 不是mp4又不知道时长时不限制，播放器准备完成后再设置一次时长才开始限制
+ *
+ * @date 2026/10/17
+ */
+class PreviewFence {
+
+    /**
+     * 多拉取的时长，保证试看结束的那一帧能解码出来
+     */
+    private static final long MARGIN_MS = 5 * 1000;
+
+    /**
+     * 按平均码率估算时多拉取的比例，码率波动大的视频不会在试看结束前被截断
+     */
+    private static final int AVERAGE_RATE_HEADROOM_PERCENT = 150;
+
+    /**
+     * 超出试看范围的连接最多等待的时间，播放器在这之前会停在试看结束的位置
+     */
+    private static final long MAX_WAIT_TIME = 60 * 1000;
+
+    /**
+     * 等待期间重新检查的间隔
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    private final VideoCacheProxy proxy;
+
+    private String url;
+    private long maxPlaytimeMs = -1;
+    private long durationMs;
+
+    private Mp4Layout layout;
+    private boolean layoutResolved;
+    private boolean layoutResolving;
+
+    /**
+     * 地址改变时加一，丢弃旧地址的解析结果
+     */
+    private int generation;
+
+    PreviewFence(VideoCacheProxy proxy) {
+        this.proxy = proxy;
+    }
+
+    synchronized void set(String url, long maxPlaytimeMs, long durationMs) {
+        if (!url.equals(this.url)) {
+            resetLayout();
+        }
+        this.url = url;
+        this.maxPlaytimeMs = maxPlaytimeMs;
+        if (durationMs > 0) {
+            this.durationMs = durationMs;
+        }
+        notifyAll();
+    }
+
+    synchronized void clear() {
+        url = null;
+        maxPlaytimeMs = -1;
+        durationMs = 0;
+        resetLayout();
+        notifyAll();
+    }
+
+    private void resetLayout() {
+        layout = null;
+        layoutResolved = false;
+        layoutResolving = false;
+        generation++;
+    }
+
+    /**
+     * HLS分片是否在试看范围内，不持有锁调用HlsPrefetcher，避免两边互相等待
+     */
+    boolean isSegmentAllowed(String segmentUrl) {
+        String fenceUrl;
+        long maxPlaytime;
+        synchronized (this) {
+            fenceUrl = url;
+            maxPlaytime = maxPlaytimeMs;
+        }
+        if (maxPlaytime < 0 || !M3u8Parser.isPlaylistUrl(fenceUrl)) {
+            return true;
+        }
+        long startMs = proxy.getHlsPrefetcher().getSegmentStartMs(segmentUrl);
+        return startMs < 0 || startMs < maxPlaytime + MARGIN_MS;
+    }
+
+    /**
+     * 是否允许从网络拉取position处的数据，第一次调用时解析mp4布局，
+     * 解析需要网络请求，不持有锁进行，解析期间其它连接先按平均码率判断
+     */
+    boolean isAllowed(String url, CacheFile cacheFile, long position) throws IOException {
+        int resolveGeneration;
+        synchronized (this) {
+            if (maxPlaytimeMs < 0) {
+                return true;
+            }
+            if (!url.equals(this.url)) {
+                resolveGeneration = -1;
+            } else if (layoutResolved || layoutResolving || cacheFile.getLength() <= 0) {
+                return isFileAllowed(cacheFile, position);
+            } else {
+                layoutResolving = true;
+                resolveGeneration = generation;
+            }
+        }
+        if (resolveGeneration < 0) {
+            return isSegmentAllowed(url);
+        }
+        resolveLayout(url, cacheFile, resolveGeneration);
+        synchronized (this) {
+            return maxPlaytimeMs < 0 || !url.equals(this.url) || isFileAllowed(cacheFile, position);
+        }
+    }
+
+    /**
+     * 超出试看范围时等待，不断开连接，播放器播放到试看结束时停止，
+     * 试看限制取消或者放宽后继续，超过{@link #MAX_WAIT_TIME}仍不允许时抛出异常
+     */
+    void awaitAllowed(String url, CacheFile cacheFile, long position) throws IOException {
+        long deadline = System.currentTimeMillis() + MAX_WAIT_TIME;
+        while (!isAllowed(url, cacheFile, position)) {
+            long remain = deadline - System.currentTimeMillis();
+            if (remain <= 0) {
+                throw new InterruptedIOException("preview limit reached");
+            }
+            synchronized (this) {
+                try {
+                    wait(Math.min(remain, CHECK_INTERVAL));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * 必须持有锁调用
+     */
+    private boolean isFileAllowed(CacheFile cacheFile, long position) {
+        long length = cacheFile.getLength();
+        if (length <= 0) {
+            return true;
+        }
+        long mediaStart = 0;
+        long mediaSize = length;
+        long duration = durationMs;
+        if (layout != null) {
+            if (position >= layout.moovOffset && position < layout.getMoovEnd()) {
+                return true;
+            }
+            long limit = layout.getOffsetForTime(maxPlaytimeMs + MARGIN_MS);
+            if (limit >= 0) {
+                return position < limit;
+            }
+            if (layout.mdatOffset >= 0) {
+                mediaStart = layout.mdatOffset;
+                mediaSize = layout.mdatSize;
+            }
+            if (layout.getDurationMs() > 0) {
+                duration = layout.getDurationMs();
+            }
+        }
+        if (position < mediaStart || duration <= 0) {
+            return true;
+        }
+        //没有采样表时按平均码率换算，多留一些余量
+        double allowedMs = (maxPlaytimeMs + MARGIN_MS) * AVERAGE_RATE_HEADROOM_PERCENT / 100.0;
+        long limit = mediaStart + (long) (mediaSize * allowedMs / duration);
+        return position < limit;
+    }
+
+    /**
+     * 不持有锁调用，解析完成时地址没有改变才保存结果，出错时下次重新解析
+     */
+    private void resolveLayout(final String url, final CacheFile cacheFile, int resolveGeneration) throws IOException {
+        Mp4Layout resolved = null;
+        boolean success = false;
+        try {
+            Mp4Layout.RangeLoader loader = new Mp4Layout.RangeLoader() {
+                @Override
+                public void load(long start, long end) throws IOException {
+                    Upstream.fill(proxy.getHttpClient(), cacheFile, url, start, end, NetworkScheduler.PRIORITY_PLAYBACK);
+                }
+            };
+            resolved = Mp4Layout.read(cacheFile, loader);
+            if (resolved != null) {
+                resolved.readSampleTables(cacheFile, loader);
+            }
+            success = true;
+        } finally {
+            synchronized (this) {
+                if (generation == resolveGeneration) {
+                    layoutResolving = false;
+                    if (success) {
+                        layout = resolved;
+                        layoutResolved = true;
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.dou361.ijkplayer.cache;
+
+import com.dou361.ijkplayer.utils.M3u8Parser;
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Headers;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 代理的一个播放器连接，解析播放器的请求，优先使用缓存，没有缓存的区间从网络补齐
+ *
+ * @date 2026/10/17
+ */
+class ProxyConnection implements Runnable {
+
+    private static final Pattern PATTERN_RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    /**
+     * 不转发给服务器的请求头，由代理或者OkHttp自己处理
+     */
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<>(Arrays.asList("host", "connection",
+            "keep-alive", "proxy-connection", "accept-encoding", "te", "transfer-encoding", "upgrade", "icy-metadata"));
+
+    private static final Pattern PATTERN_OFFSET = Pattern.compile("[?&]offset=(\\d+)");
+
+    /**
+     * 直播连接等待第一个关键帧的时间
+     */
+    private static final long LIVE_START_TIMEOUT_MS = 15 * 1000;
+
+    /**
+     * 直播没有新数据时检查一次连接的间隔
+     */
+    private static final long LIVE_READ_TIMEOUT_MS = 1000;
+
+    private final VideoCacheProxy proxy;
+
+    private final Socket socket;
+
+    /**
+     * 获取视频长度时已经打开的网络响应，可以直接用来补齐第一段缓存
+     */
+    private Response pendingResponse;
+
+    private long pendingStart;
+
+    private ParallelFetcher parallelFetcher;
+
+    ProxyConnection(VideoCacheProxy proxy, Socket socket) {
+        this.proxy = proxy;
+        this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+        CacheFile cacheFile = null;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            if (parts.length < 2 || parts[1].length() < 2) {
+                return;
+            }
+            long rangeStart = 0;
+            long rangeEnd = -1;
+            boolean partial = false;
+            Headers.Builder requestHeaders = new Headers.Builder();
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                int index = line.indexOf(':');
+                if (index <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, index).trim();
+                if (!"range".equalsIgnoreCase(name)) {
+                    if (!SKIPPED_HEADERS.contains(name.toLowerCase(Locale.US))) {
+                        try {
+                            requestHeaders.addUnsafeNonAscii(name, line.substring(index + 1).trim());
+                        } catch (IllegalArgumentException e) {
+                            //不合法的请求头不转发
+                        }
+                    }
+                } else {
+                    Matcher matcher = PATTERN_RANGE.matcher(line.substring(index + 1).trim());
+                    if (matcher.find()) {
+                        if (matcher.group(1).length() > 0) {
+                            rangeStart = Long.parseLong(matcher.group(1));
+                        }
+                        if (matcher.group(2).length() > 0) {
+                            rangeEnd = Long.parseLong(matcher.group(2));
+                        }
+                        partial = true;
+                    }
+                }
+            }
+
+            OutputStream out = socket.getOutputStream();
+            String path = proxy.stripToken(parts[1]);
+            if (path == null || path.length() < 2) {
+                //没有令牌的请求不是本应用的播放器发出的
+                writeHeaders(out, "403 Forbidden", "Content-Length: 0\r\n");
+                return;
+            }
+            Headers playerHeaders = requestHeaders.build();
+            if (path.startsWith(VideoCacheProxy.LIVE_PATH)) {
+                serveLive(path, playerHeaders, out);
+                return;
+            }
+            String url = URLDecoder.decode(path.substring(1), "UTF-8");
+            proxy.setRequestHeaders(url, playerHeaders);
+            if (M3u8Parser.isPlaylistUrl(url)) {
+                servePlaylist(url, playerHeaders, out);
+                return;
+            }
+            proxy.getHlsPrefetcher().onSegmentRequested(url);
+            cacheFile = proxy.acquireCacheFile(url);
+            if (cacheFile.getLength() <= 0) {
+                openUpstream(cacheFile, url, rangeStart, -1);
+            }
+            long length = cacheFile.getLength();
+            if (length <= 0) {
+                pipeWithoutCache(out);
+                return;
+            }
+            if (rangeStart >= length) {
+                writeHeaders(out, "416 Range Not Satisfiable", "Content-Range: bytes */" + length + "\r\n");
+                return;
+            }
+            long end = rangeEnd < 0 ? length - 1 : Math.min(rangeEnd, length - 1);
+            StringBuilder headers = new StringBuilder();
+            headers.append("Accept-Ranges: bytes\r\n");
+            headers.append("Content-Type: ").append(cacheFile.getMime() == null ? "video/mp4" : cacheFile.getMime()).append("\r\n");
+            headers.append("Content-Length: ").append(end - rangeStart + 1).append("\r\n");
+            if (partial) {
+                headers.append("Content-Range: bytes ").append(rangeStart).append("-").append(end).append("/").append(length).append("\r\n");
+            }
+            writeHeaders(out, partial ? "206 Partial Content" : "200 OK", headers.toString());
+            if (rangeStart == 0 && !cacheFile.isCompleted()) {
+                proxy.fetchTailIfNeeded(url, cacheFile);
+            }
+            serve(cacheFile, url, out, rangeStart, end);
+        } catch (IOException e) {
+            // 播放器seek或者退出时会主动断开连接
+        } finally {
+            closePendingResponse();
+            if (parallelFetcher != null) {
+                parallelFetcher.cancel();
+            }
+            if (cacheFile != null) {
+                proxy.releaseCacheFile(cacheFile);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 按顺序输出[start, end]区间，缓存命中的部分读磁盘，缺失的部分从网络下载并写入缓存
+     */
+    private void serve(CacheFile cacheFile, String url, OutputStream out, long start, long end) throws IOException {
+        byte[] buffer = new byte[Upstream.BUFFER_SIZE];
+        long position = start;
+        while (position <= end) {
+            long available = cacheFile.available(position);
+            if (available > 0) {
+                int size = (int) Math.min(Math.min(available, end - position + 1), buffer.length);
+                int read = cacheFile.read(position, buffer, 0, size);
+                if (read <= 0) {
+                    throw new IOException("cache read failed");
+                }
+                out.write(buffer, 0, read);
+                position += read;
+                continue;
+            }
+            //暂停时超出限制的数据等继续播放再拉取
+            FetchLimiter fetchLimiter = proxy.getFetchLimiter();
+            if (!fetchLimiter.isAllowed(url, position, cacheFile.getLength())) {
+                closePendingResponse();
+                fetchLimiter.awaitFetch(url, position, cacheFile.getLength());
+            }
+            PreviewFence previewFence = proxy.getPreviewFence();
+            if (!previewFence.isAllowed(url, cacheFile, position)) {
+                //超出试看范围时保持连接等待，播放器播放到试看结束时停止，不会因为连接断开报错重连
+                closePendingResponse();
+                previewFence.awaitAllowed(url, cacheFile, position);
+            }
+            long gapEnd = end;
+            long next = cacheFile.nextCachedPosition(position);
+            if (next > 0) {
+                gapEnd = Math.min(gapEnd, next - 1);
+            }
+            boolean reusePending = pendingResponse != null && pendingStart == position;
+            if (!reusePending && gapEnd - position + 1 >= ParallelFetcher.MIN_PARALLEL_SIZE
+                    && !cacheFile.isRangeUnsupported()) {
+                //大段缺失时多连接并行下载，这里等待数据写入缓存后按顺序读取
+                closePendingResponse();
+                if (parallelFetcher == null) {
+                    parallelFetcher = new ParallelFetcher(proxy, cacheFile, url);
+                }
+                parallelFetcher.awaitAvailable(position, end);
+                continue;
+            }
+            if (!reusePending) {
+                closePendingResponse();
+                openUpstream(cacheFile, url, position, gapEnd);
+            } else if (gapEnd - position + 1 > ParallelFetcher.CHUNK_SIZE) {
+                //已经打开的请求只读第一块，尽快出首帧，后面的交给并行下载
+                gapEnd = position + ParallelFetcher.CHUNK_SIZE - 1;
+            }
+            Response response = pendingResponse;
+            if (response == null) {
+                throw new IOException("open upstream failed");
+            }
+            InputStream in = response.body().byteStream();
+            if (response.code() == 200 && position > 0) {
+                Upstream.skipFully(in, position);
+            }
+            try {
+                while (position <= gapEnd && fetchLimiter.isAllowed(url, position, cacheFile.getLength())
+                        && previewFence.isAllowed(url, cacheFile, position)) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, gapEnd - position + 1));
+                    if (read < 0) {
+                        throw new IOException("unexpected end of stream");
+                    }
+                    cacheFile.write(position, buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    position += read;
+                    fetchLimiter.onFetched(read);
+                    NetworkScheduler.getInstance().acquire(NetworkScheduler.PRIORITY_PLAYBACK, read);
+                }
+            } finally {
+                closePendingResponse();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * 打开网络请求，并从响应头中获取视频的总长度
+     */
+    private void openUpstream(CacheFile cacheFile, String url, long start, long end) throws IOException {
+        pendingResponse = Upstream.open(proxy.getHttpClient(), url, start, end);
+        pendingStart = start;
+        Upstream.updateInfo(cacheFile, pendingResponse);
+    }
+
+    /**
+     * m3u8播放列表不缓存，每次从网络获取，把其中的地址改写成代理地址，媒体列表交给预取，
+     * 列表中的地址沿用请求播放列表时的请求头，预取分片时也能带上
+     */
+    private void servePlaylist(String url, final Headers headers, OutputStream out) throws IOException {
+        Response response = Upstream.open(proxy.getHttpClient(), url, 0, -1);
+        String content;
+        String baseUrl;
+        try {
+            content = response.body().string();
+            //重定向之后相对地址以最终地址为准
+            baseUrl = response.request().url().toString();
+        } finally {
+            response.close();
+        }
+        if (!M3u8Parser.isMasterPlaylist(content)) {
+            proxy.getHlsPrefetcher().onPlaylist(M3u8Parser.parseMediaPlaylist(baseUrl, content));
+        }
+        String playlist = M3u8Parser.rewriteUrls(baseUrl, content, new M3u8Parser.UrlMapper() {
+            @Override
+            public String map(String playlistUrl) {
+                proxy.setRequestHeaders(playlistUrl, headers);
+                return proxy.getProxyUrl(playlistUrl);
+            }
+        });
+        byte[] bytes = playlist.getBytes("UTF-8");
+        writeHeaders(out, "200 OK", "Content-Type: application/vnd.apple.mpegurl\r\n"
+                + "Content-Length: " + bytes.length + "\r\n");
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * 直播时移，从录制的环形缓冲中按关键帧开始输出，读到最新位置后等待新数据，
+     * 播放器暂停时连接保持不动，录制继续进行，继续播放时接着读本地数据
+     */
+    private void serveLive(String path, Headers headers, OutputStream out) throws IOException {
+        int queryIndex = path.indexOf('?');
+        String url = URLDecoder.decode(path.substring(VideoCacheProxy.LIVE_PATH.length(),
+                queryIndex < 0 ? path.length() : queryIndex), "UTF-8");
+        proxy.setRequestHeaders(url, headers);
+        long offsetMs = 0;
+        Matcher matcher = PATTERN_OFFSET.matcher(queryIndex < 0 ? "" : path.substring(queryIndex));
+        if (matcher.find()) {
+            offsetMs = Long.parseLong(matcher.group(1));
+        }
+        LiveRecorder recorder = proxy.acquireLiveRecorder(url);
+        try {
+            LiveRingBuffer ringBuffer = recorder.getRingBuffer();
+            long position = ringBuffer.awaitKeyframe(offsetMs, LIVE_START_TIMEOUT_MS);
+            if (position < 0) {
+                writeHeaders(out, "504 Gateway Timeout", "Content-Length: 0\r\n");
+                return;
+            }
+            writeHeaders(out, "200 OK", "Content-Type: video/x-flv\r\n");
+            out.write(ringBuffer.getHeaderBytes());
+            byte[] buffer = new byte[Upstream.BUFFER_SIZE];
+            while (true) {
+                int read = ringBuffer.read(position, buffer, 0, buffer.length, LIVE_READ_TIMEOUT_MS);
+                if (read == LiveRingBuffer.OVERWRITTEN) {
+                    //暂停太久数据已经被覆盖，跳到最早的关键帧
+                    position = ringBuffer.getOldestKeyframe();
+                    if (position < 0) {
+                        //一个关键帧都没有留下，等下一个关键帧
+                        position = ringBuffer.awaitKeyframe(0, LIVE_START_TIMEOUT_MS);
+                    }
+                    if (position < 0) {
+                        break;
+                    }
+                    continue;
+                }
+                if (read < 0) {
+                    break;
+                }
+                if (read == 0) {
+                    out.flush();
+                    continue;
+                }
+                out.write(buffer, 0, read);
+                position += read;
+            }
+            out.flush();
+        } finally {
+            recorder.onReaderFinished();
+        }
+    }
+
+    /**
+     * 无法获取视频长度时不做缓存，直接转发网络数据
+     */
+    private void pipeWithoutCache(OutputStream out) throws IOException {
+        Response response = pendingResponse;
+        if (response == null) {
+            throw new IOException("open upstream failed");
+        }
+        ResponseBody body = response.body();
+        String mime = body.contentType() == null ? "video/mp4" : body.contentType().toString();
+        writeHeaders(out, "200 OK", "Content-Type: " + mime + "\r\n");
+        InputStream in = body.byteStream();
+        byte[] buffer = new byte[Upstream.BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        out.flush();
+    }
+
+    private static void writeHeaders(OutputStream out, String status, String headers) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\n\r\n";
+        out.write(response.getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    private void closePendingResponse() {
+        if (pendingResponse != null) {
+            pendingResponse.close();
+            pendingResponse = null;
+        }
+    }
+}
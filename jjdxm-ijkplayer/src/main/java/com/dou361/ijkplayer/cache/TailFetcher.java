@@ -0,0 +1,75 @@
+package com.dou361.ijkplayer.cache;
+
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 播放器从头读取mp4时，检查moov是否在文件结尾，是的话和文件头并行下载尾部的moov，
+ * ffmpeg读完文件头跳到结尾找moov时直接命中缓存，不用等顺序请求
+ *
+ * @date 2026/10/17
+ */
+class TailFetcher implements Runnable {
+
+    private final VideoCacheProxy proxy;
+
+    private final String url;
+
+    TailFetcher(VideoCacheProxy proxy, String url) {
+        this.proxy = proxy;
+        this.url = url;
+    }
+
+    /**
+     * 只读取已经缓存的数据判断moov是否在mdat前面，缓存中没有文件头时返回false
+     */
+    static boolean isMoovAtFront(CacheFile cacheFile) {
+        try {
+            Mp4Layout layout = Mp4Layout.read(cacheFile, new Mp4Layout.RangeLoader() {
+                @Override
+                public void load(long start, long end) {
+                    //不发起网络请求，缺失的数据按未知处理
+                }
+            });
+            return layout != null && layout.mdatOffset >= 0 && !layout.isMoovAtEnd();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void run() {
+        CacheFile cacheFile = null;
+        try {
+            cacheFile = proxy.acquireCacheFile(url);
+            fetchTail(cacheFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (cacheFile != null) {
+                proxy.releaseCacheFile(cacheFile);
+            }
+            proxy.onTailFetchFinished(url);
+        }
+    }
+
+    private void fetchTail(final CacheFile cacheFile) throws IOException {
+        final OkHttpClient client = proxy.getHttpClient();
+        if (Upstream.fetchLength(client, cacheFile, url) <= 0 || cacheFile.isCompleted()) {
+            return;
+        }
+        //只请求box头部的几个字节，文件头的数据由播放器的连接下载
+        Mp4Layout layout = Mp4Layout.read(cacheFile, new Mp4Layout.RangeLoader() {
+            @Override
+            public void load(long start, long end) throws IOException {
+                Upstream.fill(client, cacheFile, url, start, end, NetworkScheduler.PRIORITY_PLAYBACK);
+            }
+        });
+        if (layout != null && layout.isMoovAtEnd()) {
+            Upstream.fill(client, cacheFile, url, layout.moovOffset, layout.getMoovEnd(), NetworkScheduler.PRIORITY_PLAYBACK);
+        }
+    }
+}
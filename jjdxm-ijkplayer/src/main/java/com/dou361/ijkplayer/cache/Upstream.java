@@ -0,0 +1,173 @@
+package com.dou361.ijkplayer.cache;
+
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 缓存使用的网络请求工具，打开区间请求、解析视频长度以及把缺失的区间下载到缓存
+ *
+ * @date 2026/10/17
+ */
+class Upstream {
+
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final Pattern PATTERN_CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private Upstream() {
+    }
+
+    /**
+     * 打开[start, end]区间的请求，end为-1时请求到文件结尾
+     */
+    static Response open(OkHttpClient client, String url, long start, long end) throws IOException {
+        return open(client, url, start, end, null);
+    }
+
+    /**
+     * 打开可以取消的区间请求
+     * @param signal 取消信号，为null时不能取消
+     */
+    static Response open(OkHttpClient client, String url, long start, long end, CancelSignal signal) throws IOException {
+        Request.Builder builder = new Request.Builder().url(url);
+        if (start > 0 || end >= 0) {
+            builder.header("Range", "bytes=" + start + "-" + (end >= 0 ? String.valueOf(end) : ""));
+        }
+        Call call = client.newCall(builder.build());
+        if (signal != null) {
+            signal.attach(call);
+        }
+        Response response = call.execute();
+        if (!response.isSuccessful() || response.body() == null) {
+            response.close();
+            throw new IOException("upstream response " + response.code());
+        }
+        return response;
+    }
+
+    /**
+     * 从响应头中取出总长度、类型和ETag，每次打开请求都和缓存核对，
+     * 服务器上的文件变了时清空缓存并结束本次请求，避免新旧数据混在一起，
+     * 带Range的请求同时记录服务器是否支持区间请求
+     */
+    static void updateInfo(CacheFile cacheFile, Response response) throws IOException {
+        if (response.request().header("Range") != null) {
+            cacheFile.setRangeSupported(response.code() == 206);
+        }
+        ResponseBody body = response.body();
+        String mime = body.contentType() == null ? null : body.contentType().toString();
+        long length = -1;
+        if (response.code() == 206) {
+            String contentRange = response.header("Content-Range");
+            Matcher matcher = contentRange == null ? null : PATTERN_CONTENT_RANGE.matcher(contentRange);
+            if (matcher != null && matcher.find() && !"*".equals(matcher.group(3))) {
+                length = Long.parseLong(matcher.group(3));
+            }
+        } else {
+            length = body.contentLength();
+        }
+        if (length > 0 && cacheFile.setInfo(length, mime, response.header("ETag"))) {
+            throw new IOException("upstream file changed");
+        }
+    }
+
+    /**
+     * 获取视频长度，缓存中没有时发一个很小的区间请求
+     */
+    static long fetchLength(OkHttpClient client, CacheFile cacheFile, String url) throws IOException {
+        return fetchLength(client, cacheFile, url, null);
+    }
+
+    /**
+     * 可以取消的获取视频长度
+     * @param signal 取消信号，为null时不能取消
+     */
+    static long fetchLength(OkHttpClient client, CacheFile cacheFile, String url, CancelSignal signal) throws IOException {
+        if (cacheFile.getLength() <= 0) {
+            Response response = open(client, url, 0, 0, signal);
+            try {
+                updateInfo(cacheFile, response);
+            } finally {
+                response.close();
+            }
+        }
+        return cacheFile.getLength();
+    }
+
+    /**
+     * 把[start, end)区间中还没有缓存的部分下载到缓存
+     * @param priority 流量优先级，见{@link NetworkScheduler}
+     */
+    static void fill(OkHttpClient client, CacheFile cacheFile, String url, long start, long end, int priority) throws IOException {
+        fill(client, cacheFile, url, start, end, priority, null);
+    }
+
+    /**
+     * 可以取消的下载，取消后正在进行的请求被中断，抛出异常
+     * @param signal 取消信号，为null时不能取消
+     */
+    static void fill(OkHttpClient client, CacheFile cacheFile, String url, long start, long end, int priority,
+                     CancelSignal signal) throws IOException {
+        long length = cacheFile.getLength();
+        if (length > 0) {
+            end = Math.min(end, length);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = start;
+        while (position < end) {
+            long available = cacheFile.available(position);
+            if (available > 0) {
+                position += available;
+                continue;
+            }
+            long gapEnd = end;
+            long next = cacheFile.nextCachedPosition(position);
+            if (next > 0) {
+                gapEnd = Math.min(gapEnd, next);
+            }
+            Response response = open(client, url, position, gapEnd - 1, signal);
+            try {
+                updateInfo(cacheFile, response);
+                InputStream in = response.body().byteStream();
+                if (response.code() == 200 && position > 0) {
+                    //服务器不支持区间请求，从头返回整个文件，前面的数据也写入缓存，不白白丢弃
+                    position = 0;
+                }
+                while (position < gapEnd) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, gapEnd - position));
+                    if (read < 0) {
+                        throw new IOException("unexpected end of stream");
+                    }
+                    cacheFile.write(position, buffer, 0, read);
+                    position += read;
+                    NetworkScheduler.getInstance().acquire(priority, read);
+                }
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("unexpected end of stream");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
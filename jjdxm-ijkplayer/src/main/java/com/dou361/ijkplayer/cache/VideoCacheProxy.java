@@ -0,0 +1,657 @@
+package com.dou361.ijkplayer.cache;
+
+import android.content.Context;
+
+import com.dou361.ijkplayer.utils.VideoHttpClient;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 本地边下边播代理，播放器通过127.0.0.1访问视频，
+ * 已缓存的区间直接从磁盘读取，没有缓存的区间从网络下载并同时写入缓存。
+ * 代理地址带有每次启动随机生成的令牌，其它应用不能借代理访问网络
+ *
+ * @date 2026/10/17
+ */
+public class VideoCacheProxy {
+
+    private static final String PROXY_HOST = "127.0.0.1";
+
+    /**
+     * 视频缓存目录
+     */
+    private static final String CACHE_DIR_NAME = "video-cache";
+
+    /**
+     * 视频缓存占用的最大空间
+     */
+    private static final long MAX_CACHE_SIZE = 512L * 1024 * 1024;
+
+    /**
+     * 直播时移默认可以回看的时长和占用的磁盘空间
+     */
+    private static final long TIME_SHIFT_DURATION_MS = 10 * 60 * 1000;
+    private static final long TIME_SHIFT_CAPACITY = 128L * 1024 * 1024;
+
+    /**
+     * 直播时移的代理路径前缀
+     */
+    static final String LIVE_PATH = "/live/";
+
+    /**
+     * 最多记录多少个地址的播放器请求头，HLS播放列表中的每个地址各占一个
+     */
+    private static final int MAX_HEADER_URLS = 256;
+
+    /**
+     * 代理令牌的字节数
+     */
+    private static final int TOKEN_SIZE = 16;
+
+    private static VideoCacheProxy instance;
+
+    private final Context context;
+
+    private final File cacheDir;
+
+    private final ExecutorService executorService;
+
+    /**
+     * 预加载线程池，单线程依次执行，避免和正在播放的视频抢带宽
+     */
+    private final ExecutorService preloadExecutorService;
+
+    /**
+     * 正在预加载的地址
+     */
+    private final Set<String> preloadingUrls = new HashSet<>();
+
+    /**
+     * 正在下载尾部moov的地址
+     */
+    private final Set<String> tailFetchingUrls = new HashSet<>();
+
+    /**
+     * 正在使用的缓存文件，多个连接访问同一个视频时共用
+     */
+    private final Map<String, CacheFile> openFiles = new HashMap<>();
+
+    private final HlsPrefetcher hlsPrefetcher;
+
+    private final FetchLimiter fetchLimiter = new FetchLimiter();
+
+    private final PreviewFence previewFence = new PreviewFence(this);
+
+    /**
+     * 正在录制的直播，同一时间只时移一路直播
+     */
+    private LiveRecorder liveRecorder;
+
+    private long timeShiftDurationMs = TIME_SHIFT_DURATION_MS;
+
+    private long timeShiftCapacity = TIME_SHIFT_CAPACITY;
+
+    /**
+     * 播放器请求代理时带的请求头，按完整地址记录，只有请求同一个地址时才带上，
+     * cookie、referer和鉴权等在代理后仍然有效，不会带到同域名的其它地址
+     */
+    private final Map<String, Headers> requestHeaders = new LinkedHashMap<String, Headers>(MAX_HEADER_URLS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Headers> eldest) {
+            return size() > MAX_HEADER_URLS;
+        }
+    };
+
+    /**
+     * 代理地址中的随机令牌，没有令牌的请求直接拒绝
+     */
+    private final String token;
+
+    private OkHttpClient httpClient;
+
+    private ServerSocket serverSocket;
+
+    private int port;
+
+    private VideoCacheProxy(Context context) {
+        this.context = context.getApplicationContext();
+        File dir = this.context.getExternalCacheDir();
+        if (dir == null) {
+            dir = this.context.getCacheDir();
+        }
+        cacheDir = new File(dir, CACHE_DIR_NAME);
+        cacheDir.mkdirs();
+        byte[] tokenBytes = new byte[TOKEN_SIZE];
+        new SecureRandom().nextBytes(tokenBytes);
+        token = BaseEncoding.base16().lowerCase().encode(tokenBytes);
+        executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("video-cache-proxy-pool-%d").build());
+        preloadExecutorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("video-cache-preload-pool-%d").build());
+        hlsPrefetcher = new HlsPrefetcher(this);
+        start();
+    }
+
+    /**
+     * 单例函数
+     * @param context 上下文
+     * @return 单例对象
+     */
+    public static synchronized VideoCacheProxy getInstance(Context context) {
+        if (instance == null) {
+            instance = new VideoCacheProxy(context);
+        }
+        return instance;
+    }
+
+    private void start() {
+        try {
+            serverSocket = new ServerSocket(0, 16, InetAddress.getByName(PROXY_HOST));
+            port = serverSocket.getLocalPort();
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    acceptConnections();
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            serverSocket = null;
+        }
+    }
+
+    private void acceptConnections() {
+        while (serverSocket != null && !serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executorService.execute(new ProxyConnection(this, socket));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 获取经过代理的播放地址，代理不可用或者地址不是http(s)时返回原地址
+     * @param url 原播放地址
+     * @return 代理地址
+     */
+    public String getProxyUrl(String url) {
+        if (!isProxyAvailable() || !isCacheable(url)) {
+            return url;
+        }
+        try {
+            return "http://" + PROXY_HOST + ":" + port + "/" + token + "/" + URLEncoder.encode(url, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    /**
+     * 校验并去掉请求路径开头的令牌
+     * @return 去掉令牌后的路径，以/开头，令牌不对时返回null
+     */
+    String stripToken(String path) {
+        int end = path.indexOf('/', 1);
+        if (!path.startsWith("/") || end < 0) {
+            return null;
+        }
+        //按固定时间比较，不能逐字节猜出令牌
+        if (!MessageDigest.isEqual(path.substring(1, end).getBytes(Charsets.UTF_8), token.getBytes(Charsets.UTF_8))) {
+            return null;
+        }
+        return path.substring(end);
+    }
+
+    public boolean isProxyAvailable() {
+        return serverSocket != null && !serverSocket.isClosed();
+    }
+
+    /**
+     * 地址是否可以通过代理缓存
+     */
+    public static boolean isCacheable(String url) {
+        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+
+    /**
+     * 视频是否已经完整缓存
+     */
+    public boolean isCompleted(String url) {
+        try {
+            CacheFile cacheFile = acquireCacheFile(url);
+            try {
+                return cacheFile.isCompleted();
+            } finally {
+                releaseCacheFile(cacheFile);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 预加载视频的文件头和开头几秒，已经在预加载的地址会被忽略
+     * @param url 视频地址
+     */
+    public void preload(String url) {
+        if (!isCacheable(url)) {
+            return;
+        }
+        synchronized (preloadingUrls) {
+            if (!preloadingUrls.add(url)) {
+                return;
+            }
+        }
+        preloadExecutorService.execute(new HeadPreloader(this, url));
+    }
+
+    /**
+     * 按顺序预加载多个视频
+     * @param urls 视频地址列表
+     */
+    public void preload(List<String> urls) {
+        for (String url : urls) {
+            preload(url);
+        }
+    }
+
+    /**
+     * 在当前线程预加载，给空闲预热使用
+     * @param signal 取消信号，取消时中断正在进行的下载
+     * @return 已经在其它线程预加载时返回false，没有处理这个地址
+     */
+    boolean preloadNow(String url, CancelSignal signal) {
+        if (!isCacheable(url)) {
+            return true;
+        }
+        synchronized (preloadingUrls) {
+            if (!preloadingUrls.add(url)) {
+                return false;
+            }
+        }
+        new HeadPreloader(this, url, signal).run();
+        return true;
+    }
+
+    void onPreloadFinished(String url) {
+        synchronized (preloadingUrls) {
+            preloadingUrls.remove(url);
+        }
+    }
+
+    /**
+     * 播放器从头读取视频时调用，moov在文件结尾时并行下载尾部，
+     * 不是mp4或者缓存的文件头已经能看出moov在前面时不下载
+     */
+    void fetchTailIfNeeded(String url, CacheFile cacheFile) {
+        if (!isMp4(url, cacheFile.getMime()) || TailFetcher.isMoovAtFront(cacheFile)) {
+            return;
+        }
+        synchronized (tailFetchingUrls) {
+            if (!tailFetchingUrls.add(url)) {
+                return;
+            }
+        }
+        executorService.execute(new TailFetcher(this, url));
+    }
+
+    void onTailFetchFinished(String url) {
+        synchronized (tailFetchingUrls) {
+            tailFetchingUrls.remove(url);
+        }
+    }
+
+    /**
+     * 按Content-Type或者地址后缀判断是不是mp4，HLS分片等其它格式没有moov
+     */
+    private static boolean isMp4(String url, String mime) {
+        if (mime != null) {
+            mime = mime.toLowerCase();
+            if (mime.startsWith("video/mp4") || mime.startsWith("video/quicktime") || mime.startsWith("video/x-m4v")) {
+                return true;
+            }
+        }
+        int end = url.indexOf('?');
+        String path = (end < 0 ? url : url.substring(0, end)).toLowerCase();
+        return path.endsWith(".mp4") || path.endsWith(".m4v") || path.endsWith(".mov");
+    }
+
+    static String getCacheKey(String url) {
+        return Hashing.sha256().hashString(url, Charsets.UTF_8).toString();
+    }
+
+    CacheFile acquireCacheFile(String url) throws IOException {
+        String key = getCacheKey(url);
+        synchronized (openFiles) {
+            CacheFile cacheFile = openFiles.get(key);
+            if (cacheFile == null) {
+                cacheFile = new CacheFile(cacheDir, key);
+                openFiles.put(key, cacheFile);
+            }
+            cacheFile.refCount++;
+            return cacheFile;
+        }
+    }
+
+    void releaseCacheFile(CacheFile cacheFile) {
+        boolean closed = false;
+        synchronized (openFiles) {
+            cacheFile.refCount--;
+            if (cacheFile.refCount <= 0) {
+                openFiles.remove(cacheFile.getKey());
+                closed = true;
+            }
+        }
+        if (closed) {
+            try {
+                cacheFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    trimCache();
+                }
+            });
+        }
+    }
+
+    /**
+     * 缓存超过上限时，删除最久没有使用的视频
+     */
+    private void trimCache() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long totalSize = 0;
+        List<File> journalFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".live") && deleteIdleLiveFile(file)) {
+                continue;
+            }
+            totalSize += file.length();
+            if (file.getName().endsWith(".journal")) {
+                journalFiles.add(file);
+            }
+        }
+        if (totalSize <= MAX_CACHE_SIZE) {
+            return;
+        }
+        File[] sorted = journalFiles.toArray(new File[0]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File journalFile : sorted) {
+            if (totalSize <= MAX_CACHE_SIZE) {
+                break;
+            }
+            String key = journalFile.getName().substring(0, journalFile.getName().length() - ".journal".length());
+            synchronized (openFiles) {
+                if (openFiles.containsKey(key)) {
+                    continue;
+                }
+                File dataFile = new File(cacheDir, key + ".data");
+                totalSize -= dataFile.length() + journalFile.length();
+                dataFile.delete();
+                journalFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 删除没有在录制的直播时移文件，正常结束时录制会自己删除，进程被杀时会留下
+     * @return 是否已删除
+     */
+    private synchronized boolean deleteIdleLiveFile(File file) {
+        if (liveRecorder != null && file.getName().equals(getCacheKey(liveRecorder.getUrl()) + ".live")) {
+            return false;
+        }
+        return file.delete();
+    }
+
+    /**
+     * 播放暂停，限制代理从网络拉取的数据只到播放位置之后一段距离
+     * @param url        正在播放的原地址
+     * @param positionMs 当前播放位置，单位毫秒
+     * @param durationMs 视频时长，单位毫秒
+     */
+    public void onPlaybackPaused(String url, long positionMs, long durationMs) {
+        fetchLimiter.pause(url, positionMs, durationMs);
+    }
+
+    /**
+     * 继续播放，解除拉取限制
+     */
+    public void onPlaybackResumed() {
+        fetchLimiter.resume();
+    }
+
+    /**
+     * 一个地址继续播放或者不再播放，解除它的拉取限制
+     * @param url 原播放地址
+     */
+    public void onPlaybackResumed(String url) {
+        fetchLimiter.resume(url);
+    }
+
+    /**
+     * 设置暂停时允许超前拉取的距离
+     * @param aheadMs    超前的时长，单位毫秒，小于等于0时按字节数限制
+     * @param aheadBytes 超前的字节数，无法按时长换算时也使用这个值
+     */
+    public void setPausedFetchLimit(long aheadMs, long aheadBytes) {
+        fetchLimiter.setLimit(aheadMs, aheadBytes);
+    }
+
+    /**
+     * 设置收费视频的试看时长，代理不会从网络拉取超出试看范围的数据
+     * @param url           正在播放的原地址
+     * @param maxPlaytimeMs 试看时长，单位毫秒
+     * @param durationMs    视频时长，单位毫秒，未知时为0，mp4会从moov中读取，
+     *                      其它格式时长未知时不限制，需要在播放器准备完成后带上时长再调用一次
+     */
+    public void setPreviewLimit(String url, long maxPlaytimeMs, long durationMs) {
+        previewFence.set(url, maxPlaytimeMs, durationMs);
+    }
+
+    /**
+     * 取消试看限制
+     */
+    public void clearPreviewLimit() {
+        previewFence.clear();
+    }
+
+    /**
+     * 获取可以时移的直播代理地址，代理会在本地录制最近一段直播，
+     * 暂停后继续播放、回看和网络短暂断开都从本地读取，不需要重新连接直播源
+     * @param url      直播地址，目前只支持http(s)的flv直播
+     * @param offsetMs 从直播最新位置往前回看的时长，单位毫秒，0为最新位置
+     * @return 代理地址，不支持时返回原地址
+     */
+    public String getTimeShiftUrl(String url, long offsetMs) {
+        if (!isProxyAvailable() || !isTimeShiftSupported(url)) {
+            return url;
+        }
+        try {
+            return "http://" + PROXY_HOST + ":" + port + "/" + token + LIVE_PATH + URLEncoder.encode(url, "UTF-8")
+                    + "?offset=" + Math.max(0, offsetMs);
+        } catch (UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    /**
+     * 直播地址是否支持时移
+     */
+    public static boolean isTimeShiftSupported(String url) {
+        if (!isCacheable(url)) {
+            return false;
+        }
+        int end = url.indexOf('?');
+        return (end < 0 ? url : url.substring(0, end)).toLowerCase().endsWith(".flv");
+    }
+
+    /**
+     * 设置直播时移的范围
+     * @param durationMs 最多回看的时长，单位毫秒
+     * @param capacity   最多占用的磁盘空间，单位字节
+     */
+    public void setTimeShiftWindow(long durationMs, long capacity) {
+        synchronized (this) {
+            timeShiftDurationMs = durationMs;
+            timeShiftCapacity = capacity;
+        }
+    }
+
+    /**
+     * 当前直播可以回看的时长，单位毫秒
+     */
+    public long getTimeShiftAvailableMs() {
+        synchronized (this) {
+            return liveRecorder == null ? 0 : liveRecorder.getRingBuffer().getAvailableDurationMs();
+        }
+    }
+
+    /**
+     * 停止录制直播并删除本地数据
+     */
+    public void stopTimeShift() {
+        LiveRecorder recorder;
+        synchronized (this) {
+            recorder = liveRecorder;
+            liveRecorder = null;
+        }
+        if (recorder != null) {
+            recorder.stop();
+        }
+    }
+
+    /**
+     * 获取直播的录制，没有录制或者录制的是别的直播时重新开始
+     */
+    LiveRecorder acquireLiveRecorder(String url) throws IOException {
+        LiveRecorder previous = null;
+        LiveRecorder recorder;
+        synchronized (this) {
+            if (liveRecorder != null && (!liveRecorder.getUrl().equals(url) || liveRecorder.isStopped())) {
+                previous = liveRecorder;
+                liveRecorder = null;
+            }
+            if (liveRecorder == null) {
+                File file = new File(cacheDir, getCacheKey(url) + ".live");
+                liveRecorder = new LiveRecorder(this, url, file, timeShiftCapacity, timeShiftDurationMs);
+                executorService.execute(liveRecorder);
+            }
+            recorder = liveRecorder;
+            recorder.onReaderStarted();
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+        return recorder;
+    }
+
+    void onLiveRecorderFinished(LiveRecorder recorder) {
+        synchronized (this) {
+            if (liveRecorder == recorder) {
+                liveRecorder = null;
+            }
+        }
+    }
+
+    PreviewFence getPreviewFence() {
+        return previewFence;
+    }
+
+    FetchLimiter getFetchLimiter() {
+        return fetchLimiter;
+    }
+
+    HlsPrefetcher getHlsPrefetcher() {
+        return hlsPrefetcher;
+    }
+
+    void execute(Runnable runnable) {
+        executorService.execute(runnable);
+    }
+
+    /**
+     * 记录播放器请求某个地址时带的请求头
+     */
+    void setRequestHeaders(String url, Headers headers) {
+        HttpUrl httpUrl = url == null ? null : HttpUrl.parse(url);
+        if (httpUrl == null || headers == null || headers.size() == 0) {
+            return;
+        }
+        synchronized (requestHeaders) {
+            requestHeaders.put(httpUrl.toString(), headers);
+        }
+    }
+
+    /**
+     * 代理使用的OkHttpClient，和播放器共享连接池，请求地址和播放器请求过的地址相同时补上播放器的请求头
+     */
+    synchronized OkHttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = VideoHttpClient.getInstance(context).newBuilder()
+                    .addInterceptor(new Interceptor() {
+                        @Override
+                        public Response intercept(Chain chain) throws IOException {
+                            Request request = chain.request();
+                            Headers headers;
+                            synchronized (requestHeaders) {
+                                headers = requestHeaders.get(request.url().toString());
+                            }
+                            if (headers == null) {
+                                return chain.proceed(request);
+                            }
+                            Request.Builder builder = request.newBuilder();
+                            for (int i = 0; i < headers.size(); i++) {
+                                if (request.header(headers.name(i)) == null) {
+                                    builder.addHeader(headers.name(i), headers.value(i));
+                                }
+                            }
+                            return chain.proceed(builder.build());
+                        }
+                    })
+                    .build();
+        }
+        return httpClient;
+    }
+}
@@ -36,7 +36,10 @@ public enum LogEnum {
     LOG_SWITCH_CHANNEL(9),
 
     /** 观看时长 */
-    LOG_WATCH_TIME(10);
+    LOG_WATCH_TIME(10),
+
+    /** 域名解析耗时和统计 */
+    LOG_DNS(11);
 
     private int id;
 
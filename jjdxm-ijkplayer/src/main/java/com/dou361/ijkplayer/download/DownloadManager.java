@@ -0,0 +1,378 @@
+package com.dou361.ijkplayer.download;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.dou361.ijkplayer.listener.OnDownloadListener;
+import com.dou361.ijkplayer.utils.VideoHttpClient;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 离线下载管理，任务分块断点续传，同时下载的任务数有上限，
+ * 进程重启后从journal恢复任务，下载完成的文件可以直接本地播放
+ *
+ * @date 2026/10/17
+ */
+public class DownloadManager {
+
+    /**
+     * 同时下载的任务数
+     */
+    private static final int MAX_RUNNING_TASKS = 2;
+
+    private static final String DOWNLOAD_DIR_NAME = "video-download";
+
+    private static DownloadManager instance;
+
+    private final Context context;
+
+    private final File downloadDir;
+
+    private final ExecutorService executorService;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 所有任务，key为地址
+     */
+    private final Map<String, DownloadTask> tasks = new LinkedHashMap<>();
+
+    /**
+     * 已经删除但下载线程还没结束的任务，key为地址，线程结束后删除文件
+     */
+    private final Map<String, DownloadTask> removingTasks = new LinkedHashMap<>();
+
+    private final List<OnDownloadListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 恢复任务需要读取所有journal，在后台线程进行，其它方法等恢复完成再访问任务
+     */
+    private final CountDownLatch restoreLatch = new CountDownLatch(1);
+
+    /**
+     * 任务是否已经恢复完成，加锁访问
+     */
+    private boolean restored;
+
+    /**
+     * 恢复完成前调用的操作，恢复完成后按调用顺序执行，加锁访问
+     */
+    private final List<Runnable> pendingActions = new ArrayList<>();
+
+    /**
+     * 任务列表加载完成的回调，在主线程执行
+     */
+    public interface OnTasksLoadedListener {
+        void onTasksLoaded(List<DownloadTask> tasks);
+    }
+
+    private final DownloadTask.Callback callback = new DownloadTask.Callback() {
+        @Override
+        public void onProgress(final DownloadTask task) {
+            final long downloaded = task.getDownloadedBytes();
+            final long total = task.getLength();
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (OnDownloadListener listener : listeners) {
+                        listener.onProgress(task.getUrl(), downloaded, total);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onStateChanged(final DownloadTask task, final Exception e) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (OnDownloadListener listener : listeners) {
+                        if (task.getState() == DownloadTask.STATE_COMPLETED) {
+                            listener.onComplete(task.getUrl(), task.getFile());
+                        } else if (e != null) {
+                            listener.onError(task.getUrl(), e);
+                        }
+                    }
+                }
+            });
+        }
+    };
+
+    private DownloadManager(Context context) {
+        this.context = context.getApplicationContext();
+        File dir = this.context.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = this.context.getFilesDir();
+        }
+        downloadDir = new File(dir, DOWNLOAD_DIR_NAME);
+        downloadDir.mkdirs();
+        executorService = Executors.newFixedThreadPool(MAX_RUNNING_TASKS, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("video-download-pool-%d").build());
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    restoreTasks();
+                } finally {
+                    onRestored();
+                }
+            }
+        });
+    }
+
+    /**
+     * 单例函数
+     * @param context 上下文
+     * @return 单例对象
+     */
+    public static synchronized DownloadManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadManager(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 上次进程中的任务恢复为暂停状态，已完成的块不会重新下载
+     */
+    private void restoreTasks() {
+        File[] files = downloadDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".journal")) {
+                continue;
+            }
+            DownloadTask task = DownloadTask.restore(downloadDir, name.substring(0, name.length() - ".journal".length()));
+            if (task != null) {
+                synchronized (this) {
+                    tasks.put(task.getUrl(), task);
+                }
+            }
+        }
+    }
+
+    /**
+     * 恢复完成，持有锁依次执行排队的操作，保证它们在之后的调用之前执行
+     */
+    private synchronized void onRestored() {
+        restored = true;
+        for (Runnable action : pendingActions) {
+            action.run();
+        }
+        pendingActions.clear();
+        restoreLatch.countDown();
+    }
+
+    /**
+     * 恢复完成后持有锁直接执行，否则排队到恢复完成，调用方不会被阻塞
+     */
+    private synchronized void runWhenRestored(Runnable action) {
+        if (restored) {
+            action.run();
+        } else {
+            pendingActions.add(action);
+        }
+    }
+
+    /**
+     * 等待后台恢复任务完成，不能在持有锁时调用
+     */
+    private void awaitRestored() {
+        try {
+            restoreLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 开始或者继续下载，超过同时下载数时排队等待，任务还在恢复时等恢复完成后再开始，
+     * 进度和结果通过{@link OnDownloadListener}回调
+     * @param url 视频地址
+     */
+    public void start(final String url) {
+        runWhenRestored(new Runnable() {
+            @Override
+            public void run() {
+                DownloadTask task = tasks.get(url);
+                if (task == null) {
+                    task = new DownloadTask(downloadDir, getTaskKey(url), url);
+                    tasks.put(url, task);
+                }
+                int state = task.getState();
+                if (state == DownloadTask.STATE_PAUSED || state == DownloadTask.STATE_FAILED) {
+                    task.setState(DownloadTask.STATE_WAITING);
+                    //上一次的下载线程还没退出时不再排队，等它结束后再开始，同一个文件只有一个线程写
+                    if (!task.active && !removingTasks.containsKey(url)) {
+                        submit(task);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 必须持有锁调用
+     */
+    private void submit(final DownloadTask task) {
+        task.active = true;
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DownloadManager.this) {
+                    if (task.getState() != DownloadTask.STATE_WAITING) {
+                        task.active = false;
+                        return;
+                    }
+                    task.setState(DownloadTask.STATE_RUNNING);
+                }
+                try {
+                    task.download(VideoHttpClient.getInstance(context), callback);
+                } finally {
+                    onTaskExited(task);
+                }
+            }
+        });
+    }
+
+    /**
+     * 下载线程退出，处理线程执行期间的删除和重新开始
+     */
+    private synchronized void onTaskExited(DownloadTask task) {
+        task.active = false;
+        if (task.removed) {
+            task.delete();
+            removingTasks.remove(task.getUrl());
+            //删除后又重新开始的同一个地址，等旧文件删除后再下载
+            DownloadTask next = tasks.get(task.getUrl());
+            if (next != null && !next.active && next.getState() == DownloadTask.STATE_WAITING) {
+                submit(next);
+            }
+        } else if (task.getState() == DownloadTask.STATE_WAITING) {
+            submit(task);
+        }
+    }
+
+    /**
+     * 暂停下载，正在写入的块下次重新下载
+     * @param url 视频地址
+     */
+    public void pause(final String url) {
+        runWhenRestored(new Runnable() {
+            @Override
+            public void run() {
+                DownloadTask task = tasks.get(url);
+                if (task != null && (task.getState() == DownloadTask.STATE_WAITING || task.getState() == DownloadTask.STATE_RUNNING)) {
+                    task.setState(DownloadTask.STATE_PAUSED);
+                }
+            }
+        });
+    }
+
+    /**
+     * 删除任务和已下载的文件
+     * @param url 视频地址
+     */
+    public void remove(final String url) {
+        runWhenRestored(new Runnable() {
+            @Override
+            public void run() {
+                DownloadTask task = tasks.remove(url);
+                if (task == null) {
+                    return;
+                }
+                task.setState(DownloadTask.STATE_PAUSED);
+                if (task.active) {
+                    //下载线程可能还在写文件，等它退出后再删除
+                    task.removed = true;
+                    removingTasks.put(url, task);
+                } else {
+                    task.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * 获取任务，不等待恢复，恢复完成前查不到上次进程的任务，需要完整列表时用{@link #loadTasks}
+     * @param url 视频地址
+     */
+    public synchronized DownloadTask getTask(String url) {
+        return tasks.get(url);
+    }
+
+    /**
+     * 当前的任务列表，不等待恢复，恢复完成前可能缺少上次进程的任务
+     */
+    public synchronized List<DownloadTask> getTasks() {
+        return new ArrayList<>(tasks.values());
+    }
+
+    /**
+     * 恢复完成后在主线程回调完整的任务列表
+     * @param listener 回调
+     */
+    public void loadTasks(final OnTasksLoadedListener listener) {
+        runWhenRestored(new Runnable() {
+            @Override
+            public void run() {
+                final List<DownloadTask> result = new ArrayList<>(tasks.values());
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onTasksLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 获取下载完成的本地文件，没有下载完成时返回null，
+     * 后台线程调用时等待恢复任务，主线程调用时不等待，恢复完成前返回null
+     * @param url 视频地址
+     */
+    public File getDownloadedFile(String url) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            awaitRestored();
+        }
+        DownloadTask task;
+        synchronized (this) {
+            task = tasks.get(url);
+        }
+        if (task != null && task.isCompleted() && task.getFile().exists()) {
+            return task.getFile();
+        }
+        return null;
+    }
+
+    public void addOnDownloadListener(OnDownloadListener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeOnDownloadListener(OnDownloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    private static String getTaskKey(String url) {
+        return Hashing.sha256().hashString(url, Charsets.UTF_8).toString();
+    }
+}
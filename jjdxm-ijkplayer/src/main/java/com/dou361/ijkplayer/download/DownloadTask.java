@@ -0,0 +1,380 @@
+package com.dou361.ijkplayer.download;
+
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 一个离线下载任务，文件按固定大小分块下载，每下载完一块先同步数据再追加到journal，
+ * 进程重启后读取journal恢复，已完成的块不会重新下载
+ *
+ * @date 2026/10/17
+ */
+public class DownloadTask {
+
+    public static final int STATE_WAITING = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_PAUSED = 2;
+    public static final int STATE_COMPLETED = 3;
+    public static final int STATE_FAILED = 4;
+
+    private static final int JOURNAL_MAGIC = 0x494a4b44;
+    private static final int JOURNAL_VERSION = 2;
+
+    /**
+     * 第一版journal没有记录文件的校验值
+     */
+    private static final int JOURNAL_VERSION_NO_VALIDATOR = 1;
+
+    /**
+     * 分块大小
+     */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * 进度回调的最小间隔
+     */
+    private static final long PROGRESS_INTERVAL = 500;
+
+    /**
+     * 任务的回调，由DownloadManager实现
+     */
+    interface Callback {
+        void onProgress(DownloadTask task);
+
+        void onStateChanged(DownloadTask task, Exception e);
+    }
+
+    private final String url;
+    private final File dataFile;
+    private final File journalFile;
+
+    private long length = -1;
+    private int chunkCount;
+    /**
+     * 开始下载时服务器返回的ETag或者Last-Modified，续传时用If-Range校验文件没有变，没有时为null
+     */
+    private String validator;
+    /**
+     * 已完成的块
+     */
+    private final BitSet completedChunks = new BitSet();
+
+    private volatile int state = STATE_PAUSED;
+    private volatile long downloadedBytes;
+
+    /**
+     * 有没有排队或者正在执行的下载线程，由DownloadManager加锁访问，保证同一时间只有一个线程写文件
+     */
+    boolean active;
+
+    /**
+     * 任务在下载线程执行时被删除，等线程结束再删除文件
+     */
+    boolean removed;
+
+    DownloadTask(File dir, String key, String url) {
+        this.url = url;
+        this.dataFile = new File(dir, key + ".data");
+        this.journalFile = new File(dir, key + ".journal");
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * 下载的本地文件，下载完成前内容不完整
+     */
+    public File getFile() {
+        return dataFile;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    void setState(int state) {
+        this.state = state;
+    }
+
+    /**
+     * 文件总长度，还没开始下载时为-1
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public boolean isCompleted() {
+        return state == STATE_COMPLETED;
+    }
+
+    File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * 从journal恢复任务，journal损坏时返回null
+     */
+    static DownloadTask restore(File dir, String key) {
+        File journalFile = new File(dir, key + ".journal");
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(journalFile, "rw");
+            if (in.readInt() != JOURNAL_MAGIC) {
+                return null;
+            }
+            int version = in.readInt();
+            if (version != JOURNAL_VERSION && version != JOURNAL_VERSION_NO_VALIDATOR) {
+                return null;
+            }
+            DownloadTask task = new DownloadTask(dir, key, in.readUTF());
+            task.length = in.readLong();
+            task.chunkCount = in.readInt();
+            if (version == JOURNAL_VERSION) {
+                String validator = in.readUTF();
+                task.validator = validator.length() == 0 ? null : validator;
+            }
+            if (!task.dataFile.exists()) {
+                return null;
+            }
+            long validPosition = in.getFilePointer();
+            try {
+                while (true) {
+                    int chunk = in.readInt();
+                    if (chunk >= 0 && chunk < task.chunkCount) {
+                        task.completedChunks.set(chunk);
+                    }
+                    validPosition = in.getFilePointer();
+                }
+            } catch (EOFException e) {
+                //最后一条记录没写完时截断，后面追加的记录才能对齐
+                in.setLength(validPosition);
+            }
+            task.updateDownloadedBytes();
+            task.state = task.completedChunks.cardinality() == task.chunkCount ? STATE_COMPLETED : STATE_PAUSED;
+            return task;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 在下载线程中执行，下载所有未完成的块，暂停或出错时返回
+     */
+    void download(OkHttpClient client, Callback callback) {
+        RandomAccessFile data = null;
+        DataOutputStream journal = null;
+        try {
+            if (length < 0) {
+                init(client);
+            }
+            data = new RandomAccessFile(dataFile, "rw");
+            journal = new DataOutputStream(new FileOutputStream(journalFile, true));
+            int chunk;
+            while (state == STATE_RUNNING && (chunk = completedChunks.nextClearBit(0)) < chunkCount) {
+                downloadFrom(client, chunk, data, journal, callback);
+            }
+            if (state == STATE_RUNNING) {
+                state = STATE_COMPLETED;
+                callback.onStateChanged(this, null);
+            }
+        } catch (IOException e) {
+            if (state == STATE_RUNNING) {
+                state = STATE_FAILED;
+                callback.onStateChanged(this, e);
+            }
+        } finally {
+            closeQuietly(data);
+            closeQuietly(journal);
+        }
+    }
+
+    /**
+     * 第一次下载时获取文件长度，写入journal头
+     */
+    private void init(OkHttpClient client) throws IOException {
+        Request request = new Request.Builder().url(url).header("Range", "bytes=0-0").build();
+        Response response = client.newCall(request).execute();
+        long total = -1;
+        String newValidator;
+        try {
+            newValidator = getValidator(response);
+            if (!response.isSuccessful()) {
+                throw new IOException("response " + response.code());
+            }
+            String contentRange = response.header("Content-Range");
+            if (response.code() == 206 && contentRange != null && contentRange.lastIndexOf('/') > 0) {
+                try {
+                    total = Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+                } catch (NumberFormatException e) {
+                    total = -1;
+                }
+            } else if (response.body() != null) {
+                total = response.body().contentLength();
+            }
+        } finally {
+            response.close();
+        }
+        if (total <= 0) {
+            throw new IOException("unknown content length");
+        }
+        length = total;
+        validator = newValidator;
+        chunkCount = (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        completedChunks.clear();
+        downloadedBytes = 0;
+        RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+        try {
+            data.setLength(length);
+        } finally {
+            data.close();
+        }
+        DataOutputStream journal = new DataOutputStream(new FileOutputStream(journalFile));
+        try {
+            journal.writeInt(JOURNAL_MAGIC);
+            journal.writeInt(JOURNAL_VERSION);
+            journal.writeUTF(url);
+            journal.writeLong(length);
+            journal.writeInt(chunkCount);
+            journal.writeUTF(validator == null ? "" : validator);
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * 从指定块开始连续下载，直到遇到已完成的块或者文件结尾，每完成一块记录一次
+     */
+    private void downloadFrom(OkHttpClient client, int firstChunk, RandomAccessFile data,
+                              DataOutputStream journal, Callback callback) throws IOException {
+        int lastChunk = completedChunks.nextSetBit(firstChunk);
+        lastChunk = lastChunk < 0 ? chunkCount - 1 : lastChunk - 1;
+        long start = (long) firstChunk * CHUNK_SIZE;
+        long end = Math.min(length, (long) (lastChunk + 1) * CHUNK_SIZE);
+        Request.Builder builder = new Request.Builder().url(url)
+                .header("Range", "bytes=" + start + "-" + (end - 1));
+        if (validator != null) {
+            //文件变了时服务器返回整个新文件，不会把新旧两个版本拼在一起
+            builder.header("If-Range", validator);
+        }
+        Response response = client.newCall(builder.build()).execute();
+        try {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("response " + response.code());
+            }
+            String responseValidator = getValidator(response);
+            if (start > 0 && ((validator != null && response.code() == 200)
+                    || (validator != null && responseValidator != null && !validator.equals(responseValidator)))) {
+                //服务器上的文件变了，已下载的块作废，从头开始
+                response.close();
+                init(client);
+                return;
+            }
+            InputStream in = response.body().byteStream();
+            if (response.code() == 200) {
+                //服务器不支持区间请求，跳过前面的数据
+                long skip = start;
+                while (skip > 0) {
+                    long skipped = in.skip(skip);
+                    if (skipped <= 0) {
+                        throw new IOException("unexpected end of stream");
+                    }
+                    skip -= skipped;
+                }
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = start;
+            int chunk = firstChunk;
+            long lastProgressTime = 0;
+            data.seek(position);
+            while (position < end) {
+                if (state != STATE_RUNNING) {
+                    return;
+                }
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                if (read < 0) {
+                    throw new IOException("unexpected end of stream");
+                }
+                data.write(buffer, 0, read);
+                position += read;
+                downloadedBytes += read;
+                NetworkScheduler.getInstance().acquire(NetworkScheduler.PRIORITY_DOWNLOAD, read);
+                long chunkEnd = Math.min(length, (long) (chunk + 1) * CHUNK_SIZE);
+                if (position >= chunkEnd) {
+                    data.getFD().sync();
+                    journal.writeInt(chunk);
+                    journal.flush();
+                    completedChunks.set(chunk);
+                    chunk++;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastProgressTime >= PROGRESS_INTERVAL) {
+                    lastProgressTime = now;
+                    callback.onProgress(this);
+                }
+            }
+            callback.onProgress(this);
+        } finally {
+            response.close();
+            updateDownloadedBytes();
+        }
+    }
+
+    /**
+     * 取出响应中的强校验值，If-Range不能使用弱ETag，没有强ETag时使用Last-Modified
+     */
+    private static String getValidator(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /**
+     * 按已完成的块计算进度，没写完的块不算
+     */
+    private void updateDownloadedBytes() {
+        long bytes = 0;
+        for (int i = completedChunks.nextSetBit(0); i >= 0; i = completedChunks.nextSetBit(i + 1)) {
+            bytes += Math.min(length, (long) (i + 1) * CHUNK_SIZE) - (long) i * CHUNK_SIZE;
+        }
+        downloadedBytes = bytes;
+    }
+
+    void delete() {
+        dataFile.delete();
+        journalFile.delete();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.dou361.ijkplayer.listener;
+
+import java.io.File;
+
+/**
+ * 离线下载进度监听，回调在主线程执行
+ *
+ * @date 2026/10/17
+ */
+public interface OnDownloadListener {
+
+    /**
+     * 下载进度
+     *
+     * @param url        视频地址
+     * @param downloaded 已下载的字节数
+     * @param total      总字节数
+     */
+    void onProgress(String url, long downloaded, long total);
+
+    /**
+     * 下载完成
+     *
+     * @param url  视频地址
+     * @param file 本地文件
+     */
+    void onComplete(String url, File file);
+
+    /**
+     * 下载失败，已下载的块会保留，重新开始时继续下载
+     *
+     * @param url 视频地址
+     * @param e   失败原因
+     */
+    void onError(String url, Exception e);
+}
@@ -1,18 +1,56 @@
 package com.dou361.ijkplayer.utils;
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.SystemClock;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 //import cn.xxt.commons.util.DebugUtil;
 //import cn.xxt.commons.util.LogUtil;
 //import cn.xxt.commons.util.StringUtil;
 import okhttp3.Cache;
+import okhttp3.CacheControl;
 import okhttp3.Dns;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
@@ -28,14 +66,196 @@ import okhttp3.Response;
  */
 public class HttpDns implements Dns {
 
+    /**
+     * 内存缓存最多保存的域名个数，超出后淘汰最久未使用的
+     */
+    private static final int MAX_CACHE_SIZE = 64;
+
+    /**
+     * 解析服务没有返回ttl时的默认缓存时长，单位毫秒
+     */
+    private static final long DEFAULT_TTL = 10 * 60 * 1000;
+
+    /**
+     * 过期后仍允许先返回旧结果的时长，单位毫秒，期间在后台刷新
+     */
+    private static final long MAX_STALE_TIME = 24 * 60 * 60 * 1000;
+
+    /**
+     * 已用掉ttl的这个比例后，认为即将过期，开始后台刷新
+     */
+    private static final float REFRESH_FACTOR = 0.75f;
+
+    /**
+     * 热点域名的检查周期，单位毫秒
+     */
+    private static final long HOT_HOST_CHECK_PERIOD = 30 * 1000;
+
+    /**
+     * 最多保留的热点域名个数
+     */
+    private static final int MAX_HOT_HOST_SIZE = 16;
+
+    /**
+     * 解析结果快照文件名，进程重启后用来恢复内存缓存
+     */
+    private static final String SNAPSHOT_FILE_NAME = "httpdns_snapshot";
+
+    /**
+     * 快照文件版本，格式变化时修改
+     */
+    private static final int SNAPSHOT_VERSION = 2;
+
+    /**
+     * 快照中一个域名最多的ip数，超过时认为文件已损坏
+     */
+    private static final int MAX_SNAPSHOT_IP_COUNT = 64;
+
+    /**
+     * 缓存变化后延迟写快照的时间，单位毫秒，合并短时间内的多次写入
+     */
+    private static final long SNAPSHOT_SAVE_DELAY = 5 * 1000;
+
+    /**
+     * httpdns请求的超时时间，单位毫秒，避免解析服务慢时长时间卡住播放
+     */
+    private static final long HTTP_DNS_TIMEOUT = 5 * 1000;
+
+    /**
+     * 赛跑模式下默认的首选来源等待时长，单位毫秒
+     */
+    private static final long DEFAULT_RESOLVE_DEADLINE = 800;
+
+    /**
+     * 测速时单个ip建立连接的超时时间，单位毫秒
+     */
+    private static final int CONNECT_RACE_TIMEOUT = 1500;
+
+    /**
+     * 测速时相邻两个ip发起连接的间隔，单位毫秒，前面的ip很快连上时后面的就不用再连
+     */
+    private static final long CONNECT_RACE_STAGGER = 150;
+
+    /**
+     * 测速选出的最快ip的有效时长，单位毫秒
+     */
+    private static final long FASTEST_IP_TTL = 60 * 1000;
+
+    /**
+     * ip惩罚分的半衰期，单位毫秒
+     */
+    private static final long PENALTY_HALF_LIFE = 2 * 60 * 1000;
+
+    /**
+     * 惩罚分达到这个值后暂时不再使用该ip
+     */
+    private static final double PENALTY_THRESHOLD = 1.0;
+
+    /**
+     * 惩罚分衰减到这个值以下后清除记录
+     */
+    private static final double PENALTY_MIN_SCORE = 0.1;
+
+    /**
+     * 一次连接失败增加的惩罚分
+     */
+    private static final double PENALTY_FAILURE = 1.0;
+
+    /**
+     * 一次播放卡顿中断增加的惩罚分
+     */
+    private static final double PENALTY_STALL = 0.5;
+
+    private static final String PATTERN_IP = "\\b(?:\\d{1,3}\\.){3}\\d{1,3}\\b";
+
     private static OkHttpClient httpDnsClient;
 
     private Context context;
 
     private static HttpDns instance;
 
+    /**
+     * 域名解析结果的内存缓存，按访问顺序排列，实现LRU淘汰
+     */
+    private final LinkedHashMap<String, DnsRecord> dnsCache = new LinkedHashMap<String, DnsRecord>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DnsRecord> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * 正在进行中的解析请求，同一个域名同时只发一个请求，其它调用方等待结果
+     */
+    private final Map<String, FutureTask<DnsRecord>> pendingLookups = new HashMap<>();
+
+    /**
+     * 需要在过期前主动刷新的热点域名，例如点播域名
+     */
+    private final Set<String> hotHosts = new LinkedHashSet<>();
+
+    /**
+     * 后台刷新解析结果的线程池
+     */
+    private ScheduledExecutorService refreshExecutorService;
+
+    /**
+     * 快照是否已经加载过
+     */
+    private boolean snapshotLoaded;
+
+    /**
+     * 是否已经安排了一次快照写入
+     */
+    private boolean snapshotSaveScheduled;
+
+    /**
+     * 是否让httpdns和系统解析同时进行
+     */
+    private volatile boolean raceMode;
+
+    /**
+     * 赛跑模式下等待httpdns的时长，超过后使用系统解析的结果
+     */
+    private volatile long resolveDeadline = DEFAULT_RESOLVE_DEADLINE;
+
+    /**
+     * 赛跑模式下同时执行两种解析的线程池
+     */
+    private ExecutorService raceExecutorService;
+
+    private final AtomicLong httpWinCount = new AtomicLong();
+    private final AtomicLong systemWinCount = new AtomicLong();
+    private final AtomicLong deadlineMissCount = new AtomicLong();
+    private final AtomicLong httpSuccessCount = new AtomicLong();
+    private final AtomicLong httpLatencyTotal = new AtomicLong();
+    private final AtomicLong systemSuccessCount = new AtomicLong();
+    private final AtomicLong systemLatencyTotal = new AtomicLong();
+
+    /**
+     * 每个域名测速选出的最快ip，key为域名:端口
+     */
+    private final Map<String, FastestIp> fastestIps = new HashMap<>();
+
+    /**
+     * 播放出错的ip的惩罚记录，key为ip
+     */
+    private final Map<String, Penalty> penalties = new HashMap<>();
+
+    /**
+     * 当前网络的标识，同一个域名在不同网络下的最优ip不同，缓存按网络分开保存
+     */
+    private volatile String networkId = "";
+
+    /**
+     * 解析耗时和结果统计
+     */
+    private final HttpDnsMetrics metrics = new HttpDnsMetrics();
+
     private HttpDns(Context context) {
-        this.context = context;
+        this.context = context.getApplicationContext();
+        networkId = NetworkUtils.getNetworkIdentity(this.context);
+        registerNetworkCallback();
     }
 
     /**
@@ -64,29 +284,48 @@ public class HttpDns implements Dns {
 //            }
 //        }
 
-        //dnspod提供的dns服务
-        HttpUrl httpUrl = new HttpUrl.Builder().scheme("http")
-                .host("119.29.29.29")
-                .addPathSegment("d")
-                .addQueryParameter("dn", hostname)
-//                .addQueryParameter("ip", LogUtil.getPublicIp(context))
-                .build();
-        Request dnsRequest = new Request.Builder().url(httpUrl).get().build();
+        long startTime = SystemClock.elapsedRealtime();
         try {
-            String s = getHTTPDnsClient(context).newCall(dnsRequest).execute().body().string();
-            //避免服务器挂了却无法查询DNS
-            if (!s.matches("\\b(?:\\d{1,3}\\.){3}\\d{1,3}\\b")) {
-                return Dns.SYSTEM.lookup(hostname);
+            //被停用的ip排到最后，OkHttp按顺序尝试，其它ip都连不上时仍可使用
+            //测速选出的ip排在最前，代理和预加载也优先连最快的节点
+            return deprioritizePenalized(preferFastest(hostname, lookupInternal(hostname)));
+        } finally {
+            metrics.recordLatency(SystemClock.elapsedRealtime() - startTime);
+        }
+    }
+
+    private List<InetAddress> lookupInternal(String hostname) throws UnknownHostException {
+        loadSnapshotIfNeeded();
+
+        //先查内存缓存，未过期直接返回，不走网络
+        DnsRecord record = getCachedRecord(hostname);
+        if (record != null && !record.isExpired()) {
+            metrics.recordHit();
+            if (record.needRefresh()) {
+                refreshAsync(hostname);
             }
-            return Arrays.asList(InetAddress.getAllByName(s));
-        } catch (IOException e) {
+            return record.toInetAddresses();
+        }
+        //过期不久的结果先拿来用，同时在后台刷新
+        if (record != null && !record.isTooStale()) {
+            metrics.recordStale();
+            refreshAsync(hostname);
+            return record.toInetAddresses();
+        }
+
+        metrics.recordMiss();
+        record = resolveShared(hostname, false);
+        //避免服务器挂了却无法查询DNS
+        if (record == null) {
+            metrics.recordFallback();
             return Dns.SYSTEM.lookup(hostname);
         }
+        return record.toInetAddresses();
     }
 
 
     public String getIp(String host) throws Exception {
-        List<InetAddress> ipList = lookup(host);
+        List<InetAddress> ipList = lookupAvoidingPenalized(host);
         if (ipList!=null && ipList.size()>0) {
             return ipList.get(0).getHostAddress();
         } else {
@@ -94,6 +333,779 @@ public class HttpDns implements Dns {
         }
     }
 
+    /**
+     * 解析域名，有多个ip时同时尝试建立tcp连接，返回最先连上的ip
+     * @param host 域名
+     * @param port 端口
+     * @return 最快的ip，都连不上时返回第一个ip
+     */
+    public String getFastestIp(String host, int port) throws Exception {
+        List<InetAddress> ipList = lookupAvoidingPenalized(host);
+        if (ipList == null || ipList.isEmpty()) {
+            throw new UnknownHostException();
+        }
+        if (ipList.size() == 1) {
+            return ipList.get(0).getHostAddress();
+        }
+        String key = host + ":" + port;
+        synchronized (fastestIps) {
+            FastestIp fastestIp = fastestIps.get(key);
+            if (fastestIp != null && !fastestIp.isExpired() && containsIp(ipList, fastestIp.ip)) {
+                return fastestIp.ip;
+            }
+        }
+        String ip = raceConnect(ipList, port);
+        if (ip == null) {
+            return ipList.get(0).getHostAddress();
+        }
+        synchronized (fastestIps) {
+            fastestIps.put(key, new FastestIp(ip, System.currentTimeMillis()));
+        }
+        return ip;
+    }
+
+    /**
+     * 在后台提前解析域名，播放时直接使用缓存的结果
+     * @param host 域名
+     * @param port 端口
+     * @param warmUp 是否同时对各个ip测速，提前选出最快的ip
+     */
+    public void preResolve(final String host, final int port, final boolean warmUp) {
+        if (host == null) {
+            return;
+        }
+        addHotHost(host);
+        getRefreshExecutorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (warmUp) {
+                        getFastestIp(host, port);
+                    } else {
+                        lookup(host);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * 上报某个ip连接失败，一段时间内优先使用其它ip
+     * @param host 域名
+     * @param ip 出错的ip
+     */
+    public void reportFailure(String host, String ip) {
+        addPenalty(host, ip, PENALTY_FAILURE);
+    }
+
+    /**
+     * 上报某个ip播放中断或卡顿，一段时间内优先使用其它ip
+     * @param host 域名
+     * @param ip 出错的ip
+     */
+    public void reportStall(String host, String ip) {
+        addPenalty(host, ip, PENALTY_STALL);
+    }
+
+    /**
+     * ip当前是否因为出错被暂时停用
+     */
+    public boolean isPenalized(String ip) {
+        synchronized (penalties) {
+            Penalty penalty = penalties.get(ip);
+            if (penalty == null) {
+                return false;
+            }
+            double score = penalty.getScore();
+            if (score < PENALTY_MIN_SCORE) {
+                penalties.remove(ip);
+            }
+            return score >= PENALTY_THRESHOLD;
+        }
+    }
+
+    private void addPenalty(String host, String ip, double score) {
+        if (host == null || ip == null) {
+            return;
+        }
+        synchronized (penalties) {
+            Penalty penalty = penalties.get(ip);
+            if (penalty == null) {
+                penalty = new Penalty();
+                penalties.put(ip, penalty);
+            }
+            penalty.add(score);
+        }
+        if (isPenalized(ip)) {
+            synchronized (fastestIps) {
+                Iterator<Map.Entry<String, FastestIp>> iterator = fastestIps.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().getValue().ip.equals(ip)) {
+                        iterator.remove();
+                    }
+                }
+            }
+            //可能已经换了节点，重新解析一次
+            refreshAsync(host);
+        }
+    }
+
+    /**
+     * 解析域名并去掉被停用的ip，全部被停用时改用系统解析，仍没有可用的才返回原结果
+     */
+    private List<InetAddress> lookupAvoidingPenalized(String host) throws UnknownHostException {
+        List<InetAddress> ipList = lookup(host);
+        List<InetAddress> available = removePenalized(ipList);
+        if (!available.isEmpty()) {
+            return available;
+        }
+        try {
+            available = removePenalized(Dns.SYSTEM.lookup(host));
+        } catch (UnknownHostException e) {
+            available = null;
+        }
+        return available == null || available.isEmpty() ? ipList : available;
+    }
+
+    private List<InetAddress> removePenalized(List<InetAddress> ipList) {
+        List<InetAddress> available = new ArrayList<>();
+        if (ipList != null) {
+            for (InetAddress address : ipList) {
+                if (!isPenalized(address.getHostAddress())) {
+                    available.add(address);
+                }
+            }
+        }
+        return available;
+    }
+
+    private List<InetAddress> preferFastest(String host, List<InetAddress> ipList) {
+        String fastest = null;
+        synchronized (fastestIps) {
+            for (Map.Entry<String, FastestIp> entry : fastestIps.entrySet()) {
+                if (entry.getKey().startsWith(host + ":") && !entry.getValue().isExpired()) {
+                    fastest = entry.getValue().ip;
+                    break;
+                }
+            }
+        }
+        if (fastest == null || ipList.isEmpty() || ipList.get(0).getHostAddress().equals(fastest)) {
+            return ipList;
+        }
+        List<InetAddress> sorted = new ArrayList<>(ipList.size());
+        for (InetAddress address : ipList) {
+            if (address.getHostAddress().equals(fastest)) {
+                sorted.add(0, address);
+            } else {
+                sorted.add(address);
+            }
+        }
+        return sorted;
+    }
+
+    private List<InetAddress> deprioritizePenalized(List<InetAddress> ipList) {
+        List<InetAddress> available = removePenalized(ipList);
+        if (available.isEmpty() || available.size() == ipList.size()) {
+            return ipList;
+        }
+        List<InetAddress> sorted = new ArrayList<>(available);
+        for (InetAddress address : ipList) {
+            if (!sorted.contains(address)) {
+                sorted.add(address);
+            }
+        }
+        return sorted;
+    }
+
+    private static boolean containsIp(List<InetAddress> ipList, String ip) {
+        for (InetAddress address : ipList) {
+            if (address.getHostAddress().equals(ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 依次错开一点时间向每个ip发起tcp连接，返回最先连上的
+     * @return 最先连上的ip，都连不上时为null
+     */
+    private String raceConnect(List<InetAddress> ipList, final int port) {
+        final AtomicBoolean connected = new AtomicBoolean(false);
+        CompletionService<String> completionService = new ExecutorCompletionService<>(getRaceExecutorService());
+        for (int i = 0; i < ipList.size(); i++) {
+            final InetAddress address = ipList.get(i);
+            final long delay = i * CONNECT_RACE_STAGGER;
+            completionService.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                    if (connected.get()) {
+                        return null;
+                    }
+                    Socket socket = new Socket();
+                    try {
+                        socket.connect(new InetSocketAddress(address, port), CONNECT_RACE_TIMEOUT);
+                        connected.set(true);
+                        return address.getHostAddress();
+                    } finally {
+                        socket.close();
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < ipList.size(); i++) {
+            try {
+                String ip = completionService.take().get();
+                if (ip != null) {
+                    return ip;
+                }
+            } catch (ExecutionException e) {
+                //这个ip连不上，继续等其它的
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 清空内存中的解析缓存
+     */
+    public void clearCache() {
+        synchronized (dnsCache) {
+            dnsCache.clear();
+        }
+    }
+
+    /**
+     * 获取解析耗时和结果统计
+     */
+    public HttpDnsMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 设置解析模式
+     * @param raceMode true为httpdns和系统解析同时进行，false为httpdns失败后再走系统解析
+     * @param deadline 赛跑模式下等待httpdns的时长，单位毫秒，超过后使用系统解析的结果
+     */
+    public void setRaceMode(boolean raceMode, long deadline) {
+        this.raceMode = raceMode;
+        if (deadline > 0) {
+            this.resolveDeadline = deadline;
+        }
+    }
+
+    /**
+     * 获取赛跑模式的统计数据，用来调整等待时长
+     */
+    public RaceStats getRaceStats() {
+        return new RaceStats(httpWinCount.get(), systemWinCount.get(), deadlineMissCount.get(),
+                average(httpLatencyTotal.get(), httpSuccessCount.get()),
+                average(systemLatencyTotal.get(), systemSuccessCount.get()));
+    }
+
+    private static long average(long total, long count) {
+        return count > 0 ? total / count : 0;
+    }
+
+    /**
+     * 标记为热点域名，在解析结果过期前主动刷新，播放时不用等待解析
+     * @param hostname 域名
+     */
+    public void addHotHost(String hostname) {
+        if (hostname == null) {
+            return;
+        }
+        synchronized (hotHosts) {
+            //重新插入，保持最近使用的在末尾
+            hotHosts.remove(hostname);
+            hotHosts.add(hostname);
+            if (hotHosts.size() > MAX_HOT_HOST_SIZE) {
+                hotHosts.remove(hotHosts.iterator().next());
+            }
+        }
+        getRefreshExecutorService();
+    }
+
+    /**
+     * 在后台刷新一个域名的解析结果，和前台的解析请求共用同一个请求
+     * @param hostname 域名
+     */
+    private void refreshAsync(final String hostname) {
+        synchronized (pendingLookups) {
+            if (pendingLookups.containsKey(hostname)) {
+                return;
+            }
+        }
+        getRefreshExecutorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                //后台刷新时缓存还没过期，必须绕过内存和磁盘缓存重新请求
+                resolveShared(hostname, true);
+            }
+        });
+    }
+
+    /**
+     * 检查热点域名，对即将过期的发起刷新
+     */
+    private void refreshHotHosts() {
+        List<String> hosts;
+        synchronized (hotHosts) {
+            hosts = new ArrayList<>(hotHosts);
+        }
+        for (String host : hosts) {
+            DnsRecord record = getCachedRecord(host);
+            if (record == null || record.needRefresh()) {
+                refreshAsync(host);
+            }
+        }
+    }
+
+    private synchronized ScheduledExecutorService getRefreshExecutorService() {
+        if (refreshExecutorService == null) {
+            refreshExecutorService = new ScheduledThreadPoolExecutor(2, new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("httpdns-refresh-pool-%d").build());
+            refreshExecutorService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshHotHosts();
+                    } catch (Throwable e) {
+                        //异常不能抛出去，否则定时任务会被取消，之后不再刷新
+                        e.printStackTrace();
+                        metrics.recordError(e.getClass().getSimpleName());
+                    }
+                }
+            }, HOT_HOST_CHECK_PERIOD, HOT_HOST_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+        }
+        return refreshExecutorService;
+    }
+
+    private DnsRecord getCachedRecord(String hostname) {
+        synchronized (dnsCache) {
+            return dnsCache.get(getCacheKey(networkId, hostname));
+        }
+    }
+
+    private void putCachedRecord(String cacheKey, DnsRecord record) {
+        synchronized (dnsCache) {
+            dnsCache.put(cacheKey, record);
+        }
+        scheduleSaveSnapshot();
+    }
+
+    private static String getCacheKey(String networkId, String hostname) {
+        return networkId + "|" + hostname;
+    }
+
+    /**
+     * 监听网络切换，切换后使用新网络的缓存，并重新解析正在使用的域名
+     */
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+        ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                checkNetworkChanged();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                checkNetworkChanged();
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                checkNetworkChanged();
+            }
+        };
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                connectivityManager.registerDefaultNetworkCallback(networkCallback);
+            } else {
+                NetworkRequest request = new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build();
+                connectivityManager.registerNetworkCallback(request, networkCallback);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void checkNetworkChanged() {
+        String newNetworkId = NetworkUtils.getNetworkIdentity(context);
+        if (newNetworkId.equals(networkId)) {
+            return;
+        }
+        networkId = newNetworkId;
+        onNetworkChanged();
+    }
+
+    /**
+     * 网络切换后，之前测速的结果和磁盘上的http缓存都不再适用，重新解析热点域名
+     */
+    private void onNetworkChanged() {
+        synchronized (fastestIps) {
+            fastestIps.clear();
+        }
+        getRefreshExecutorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Cache cache = getHTTPDnsClient(context).cache();
+                    if (cache != null) {
+                        cache.evictAll();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                refreshHotHosts();
+            }
+        });
+    }
+
+    private File getSnapshotFile() {
+        return new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * 第一次解析时从磁盘快照恢复内存缓存，冷启动后的第一个视频不用再等解析
+     */
+    private void loadSnapshotIfNeeded() {
+        synchronized (dnsCache) {
+            if (snapshotLoaded) {
+                return;
+            }
+            snapshotLoaded = true;
+            File file = getSnapshotFile();
+            if (!file.exists()) {
+                return;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != SNAPSHOT_VERSION) {
+                    return;
+                }
+                int count = in.readInt();
+                if (count < 0 || count > MAX_CACHE_SIZE) {
+                    throw new IOException("invalid snapshot count " + count);
+                }
+                //全部读取成功后才写入缓存，文件损坏时整个丢弃
+                Map<String, DnsRecord> records = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    String cacheKey = in.readUTF();
+                    int ipCount = in.readInt();
+                    if (ipCount < 0 || ipCount > MAX_SNAPSHOT_IP_COUNT) {
+                        throw new IOException("invalid snapshot ip count " + ipCount);
+                    }
+                    List<String> ips = new ArrayList<>(ipCount);
+                    for (int j = 0; j < ipCount; j++) {
+                        ips.add(in.readUTF());
+                    }
+                    long ttl = in.readLong();
+                    long updateTime = in.readLong();
+                    records.put(cacheKey, new DnsRecord(ips, ttl, updateTime));
+                }
+                for (Map.Entry<String, DnsRecord> entry : records.entrySet()) {
+                    //内存里已有的结果更新，不覆盖
+                    if (!entry.getValue().isTooStale() && !dnsCache.containsKey(entry.getKey())) {
+                        dnsCache.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                file.delete();
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    private void scheduleSaveSnapshot() {
+        synchronized (dnsCache) {
+            if (snapshotSaveScheduled) {
+                return;
+            }
+            snapshotSaveScheduled = true;
+        }
+        getRefreshExecutorService().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (dnsCache) {
+                    snapshotSaveScheduled = false;
+                }
+                saveSnapshot();
+            }
+        }, SNAPSHOT_SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 把内存缓存写入磁盘快照，先写临时文件再改名，避免写一半的文件被读到
+     */
+    private void saveSnapshot() {
+        Map<String, DnsRecord> records;
+        synchronized (dnsCache) {
+            records = new LinkedHashMap<>(dnsCache);
+        }
+        File file = getSnapshotFile();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(records.size());
+            for (Map.Entry<String, DnsRecord> entry : records.entrySet()) {
+                DnsRecord record = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(record.ips.size());
+                for (String ip : record.ips) {
+                    out.writeUTF(ip);
+                }
+                out.writeLong(record.ttl);
+                out.writeLong(record.updateTime);
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 合并同一域名的并发解析，只有第一个调用方真正发起请求，其余调用方共享它的结果
+     * @param hostname 域名
+     * @param force 是否强制从网络重新解析，为false时缓存未过期直接返回缓存
+     * @return 解析结果，失败时为null
+     */
+    private DnsRecord resolveShared(final String hostname, final boolean force) {
+        FutureTask<DnsRecord> task;
+        boolean isOwner = false;
+        synchronized (pendingLookups) {
+            task = pendingLookups.get(hostname);
+            if (task == null) {
+                //上一个请求可能刚刚结束，再查一次缓存
+                DnsRecord record = getCachedRecord(hostname);
+                if (!force && record != null && !record.isExpired()) {
+                    return record;
+                }
+                task = new FutureTask<>(new Callable<DnsRecord>() {
+                    @Override
+                    public DnsRecord call() throws Exception {
+                        return raceMode ? resolveByRace(hostname, force) : resolveByHttp(hostname, force);
+                    }
+                });
+                pendingLookups.put(hostname, task);
+                isOwner = true;
+            }
+        }
+        if (isOwner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (pendingLookups) {
+                    pendingLookups.remove(hostname);
+                }
+            }
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * httpdns和系统解析同时进行，在deadline内优先使用httpdns的结果，
+     * httpdns失败或超过deadline时使用先返回的有效结果
+     * @param hostname 域名
+     * @param force 是否绕过httpdns的磁盘缓存
+     * @return 解析结果，两种方式都失败时为null
+     */
+    private DnsRecord resolveByRace(final String hostname, final boolean force) {
+        final long startTime = SystemClock.elapsedRealtime();
+        Future<DnsRecord> httpFuture = getRaceExecutorService().submit(new Callable<DnsRecord>() {
+            @Override
+            public DnsRecord call() throws Exception {
+                DnsRecord record = resolveByHttp(hostname, force);
+                if (record != null) {
+                    httpSuccessCount.incrementAndGet();
+                    httpLatencyTotal.addAndGet(SystemClock.elapsedRealtime() - startTime);
+                }
+                return record;
+            }
+        });
+        Future<DnsRecord> systemFuture = getRaceExecutorService().submit(new Callable<DnsRecord>() {
+            @Override
+            public DnsRecord call() throws Exception {
+                List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+                systemSuccessCount.incrementAndGet();
+                systemLatencyTotal.addAndGet(SystemClock.elapsedRealtime() - startTime);
+                List<String> ips = new ArrayList<>();
+                for (InetAddress address : addresses) {
+                    ips.add(address.getHostAddress());
+                }
+                //系统解析的结果不知道ttl，不写入缓存
+                return ips.isEmpty() ? null : new DnsRecord(ips, 0, System.currentTimeMillis());
+            }
+        });
+
+        DnsRecord record = awaitQuietly(httpFuture, resolveDeadline);
+        if (record != null) {
+            httpWinCount.incrementAndGet();
+            return record;
+        }
+        if (!httpFuture.isDone()) {
+            deadlineMissCount.incrementAndGet();
+        }
+        //httpdns没赶上，它的结果仍会在后台写入缓存，供下次使用
+        record = awaitQuietly(systemFuture, HTTP_DNS_TIMEOUT);
+        if (record != null) {
+            systemWinCount.incrementAndGet();
+            return record;
+        }
+        record = awaitQuietly(httpFuture, HTTP_DNS_TIMEOUT);
+        if (record != null) {
+            httpWinCount.incrementAndGet();
+        }
+        return record;
+    }
+
+    private DnsRecord awaitQuietly(Future<DnsRecord> future, long timeout) {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return null;
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private synchronized ExecutorService getRaceExecutorService() {
+        if (raceExecutorService == null) {
+            raceExecutorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("httpdns-race-pool-%d").build());
+        }
+        return raceExecutorService;
+    }
+
+    /**
+     * 通过httpdns解析域名，成功后写入内存缓存
+     * @param hostname 域名
+     * @param force 是否绕过磁盘缓存直接请求网络
+     * @return 解析结果，失败时为null
+     */
+    private DnsRecord resolveByHttp(String hostname, boolean force) {
+        //请求期间可能切换网络，结果按发起请求时的网络保存
+        String cacheKey = getCacheKey(networkId, hostname);
+        DnsRecord record;
+        try {
+            record = fetchFromResolver(hostname, force ? CacheControl.FORCE_NETWORK : null);
+            //磁盘缓存里的结果已经超过ttl，强制重新请求一次
+            if (!force && record != null && record.isExpired()) {
+                record = fetchFromResolver(hostname, CacheControl.FORCE_NETWORK);
+            }
+            if (record == null) {
+                metrics.recordError("InvalidResponse");
+            }
+        } catch (IOException e) {
+            metrics.recordError(e.getClass().getSimpleName());
+            record = null;
+        }
+        if (record != null) {
+            putCachedRecord(cacheKey, record);
+        }
+        return record;
+    }
+
+    /**
+     * 请求dnspod解析域名
+     * @param hostname 域名
+     * @param cacheControl 缓存策略，为null时允许使用磁盘缓存
+     * @return 解析结果，服务返回的内容无法识别时为null
+     */
+    private DnsRecord fetchFromResolver(String hostname, CacheControl cacheControl) throws IOException {
+        //dnspod提供的dns服务，ttl=1时返回格式为 ip;ip,ttl
+        HttpUrl httpUrl = new HttpUrl.Builder().scheme("http")
+                .host("119.29.29.29")
+                .addPathSegment("d")
+                .addQueryParameter("dn", hostname)
+                .addQueryParameter("ttl", "1")
+//                .addQueryParameter("ip", LogUtil.getPublicIp(context))
+                .build();
+        Request.Builder builder = new Request.Builder().url(httpUrl).get();
+        if (cacheControl != null) {
+            builder.cacheControl(cacheControl);
+        }
+        Response response = getHTTPDnsClient(context).newCall(builder.build()).execute();
+        try {
+            String s = response.body().string().trim();
+            long ttl = DEFAULT_TTL;
+            int ttlIndex = s.lastIndexOf(',');
+            if (ttlIndex >= 0) {
+                try {
+                    ttl = Long.parseLong(s.substring(ttlIndex + 1).trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    ttl = DEFAULT_TTL;
+                }
+                s = s.substring(0, ttlIndex);
+            }
+            List<String> ips = new ArrayList<>();
+            for (String ip : s.split(";")) {
+                ip = ip.trim();
+                if (ip.matches(PATTERN_IP) && !ips.contains(ip)) {
+                    ips.add(ip);
+                }
+            }
+            if (ips.isEmpty()) {
+                return null;
+            }
+            if (ttl <= 0) {
+                ttl = DEFAULT_TTL;
+            }
+            //命中磁盘缓存时，receivedResponseAtMillis是最初从网络拿到结果的时间
+            return new DnsRecord(ips, ttl, response.receivedResponseAtMillis());
+        } finally {
+            response.close();
+        }
+    }
+
      private static OkHttpClient getHTTPDnsClient(Context context) {
         if (httpDnsClient == null) {
             synchronized (HttpDns.class) {
@@ -112,6 +1124,7 @@ public class HttpDns implements Dns {
                             })
                             //5MB的文件缓存
                             .cache(new Cache(new File(cacheDir, "httpdns"), 10 * 1024 * 1024))
+                            .callTimeout(HTTP_DNS_TIMEOUT, TimeUnit.MILLISECONDS)
                             .build();
                 }
             }
@@ -119,4 +1132,131 @@ public class HttpDns implements Dns {
         return httpDnsClient;
     }
 
+    /**
+     * 赛跑模式的统计数据
+     */
+    public static class RaceStats {
+        /**
+         * httpdns胜出次数
+         */
+        public final long httpWinCount;
+        /**
+         * 系统解析胜出次数
+         */
+        public final long systemWinCount;
+        /**
+         * httpdns超过deadline的次数
+         */
+        public final long deadlineMissCount;
+        /**
+         * httpdns成功时的平均耗时，单位毫秒
+         */
+        public final long httpAverageLatency;
+        /**
+         * 系统解析成功时的平均耗时，单位毫秒
+         */
+        public final long systemAverageLatency;
+
+        RaceStats(long httpWinCount, long systemWinCount, long deadlineMissCount,
+                  long httpAverageLatency, long systemAverageLatency) {
+            this.httpWinCount = httpWinCount;
+            this.systemWinCount = systemWinCount;
+            this.deadlineMissCount = deadlineMissCount;
+            this.httpAverageLatency = httpAverageLatency;
+            this.systemAverageLatency = systemAverageLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "RaceStats{httpWin=" + httpWinCount + ", systemWin=" + systemWinCount
+                    + ", deadlineMiss=" + deadlineMissCount + ", httpLatency=" + httpAverageLatency
+                    + ", systemLatency=" + systemAverageLatency + "}";
+        }
+    }
+
+    /**
+     * 一个ip的惩罚分，随时间指数衰减
+     */
+    private static class Penalty {
+        double score;
+        long updateTime;
+
+        double getScore() {
+            long elapsed = System.currentTimeMillis() - updateTime;
+            return score * Math.pow(0.5, (double) elapsed / PENALTY_HALF_LIFE);
+        }
+
+        void add(double value) {
+            score = getScore() + value;
+            updateTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 测速选出的最快ip
+     */
+    private static class FastestIp {
+        final String ip;
+        final long updateTime;
+
+        FastestIp(String ip, long updateTime) {
+            this.ip = ip;
+            this.updateTime = updateTime;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - updateTime > FASTEST_IP_TTL;
+        }
+    }
+
+    /**
+     * 一个域名的解析结果
+     */
+    static class DnsRecord {
+        /**
+         * 解析到的ip列表
+         */
+        final List<String> ips;
+        /**
+         * 有效时长，单位毫秒
+         */
+        final long ttl;
+        /**
+         * 解析成功的时间
+         */
+        final long updateTime;
+
+        DnsRecord(List<String> ips, long ttl, long updateTime) {
+            this.ips = ips;
+            this.ttl = ttl;
+            this.updateTime = updateTime;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - updateTime > ttl;
+        }
+
+        /**
+         * 是否即将过期，需要提前刷新
+         */
+        boolean needRefresh() {
+            return System.currentTimeMillis() - updateTime > ttl * REFRESH_FACTOR;
+        }
+
+        /**
+         * 是否过期太久，不能再作为旧结果返回
+         */
+        boolean isTooStale() {
+            return System.currentTimeMillis() - updateTime > ttl + MAX_STALE_TIME;
+        }
+
+        List<InetAddress> toInetAddresses() throws UnknownHostException {
+            List<InetAddress> addresses = new ArrayList<>();
+            for (String ip : ips) {
+                addresses.addAll(Arrays.asList(InetAddress.getAllByName(ip)));
+            }
+            return addresses;
+        }
+    }
+
 }
@@ -0,0 +1,167 @@
+package com.dou361.ijkplayer.utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HttpDns的解析耗时和结果统计
+ *
+ * @date 2026/10/17
+ */
+public class HttpDnsMetrics {
+
+    /**
+     * 耗时分布的各个区间上限，单位毫秒，最后一个区间为大于最大上限的
+     */
+    private static final long[] LATENCY_BUCKETS = {1, 10, 50, 100, 200, 500, 1000, 3000};
+
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong latencyTotal = new AtomicLong();
+    /**
+     * 命中未过期的缓存
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+    /**
+     * 命中已过期的缓存，先返回旧结果
+     */
+    private final AtomicLong staleCount = new AtomicLong();
+    /**
+     * 没有可用缓存，需要等待解析
+     */
+    private final AtomicLong missCount = new AtomicLong();
+    /**
+     * httpdns失败，退回系统解析
+     */
+    private final AtomicLong fallbackCount = new AtomicLong();
+    /**
+     * httpdns出错的类型和次数
+     */
+    private final Map<String, AtomicLong> errorCounts = new LinkedHashMap<>();
+
+    HttpDnsMetrics() {
+    }
+
+    void recordLatency(long latency) {
+        int index = LATENCY_BUCKETS.length;
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            if (latency < LATENCY_BUCKETS[i]) {
+                index = i;
+                break;
+            }
+        }
+        latencyHistogram.incrementAndGet(index);
+        lookupCount.incrementAndGet();
+        latencyTotal.addAndGet(latency);
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordStale() {
+        staleCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void recordFallback() {
+        fallbackCount.incrementAndGet();
+    }
+
+    void recordError(String errorClass) {
+        synchronized (errorCounts) {
+            AtomicLong count = errorCounts.get(errorClass);
+            if (count == null) {
+                count = new AtomicLong();
+                errorCounts.put(errorClass, count);
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getStaleCount() {
+        return staleCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    /**
+     * 平均解析耗时，单位毫秒
+     */
+    public long getAverageLatency() {
+        long count = lookupCount.get();
+        return count > 0 ? latencyTotal.get() / count : 0;
+    }
+
+    /**
+     * 耗时分布，key为区间上限，例如"<50"，最后一个为">=3000"
+     */
+    public Map<String, Long> getLatencyHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            histogram.put("<" + LATENCY_BUCKETS[i], latencyHistogram.get(i));
+        }
+        histogram.put(">=" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1], latencyHistogram.get(LATENCY_BUCKETS.length));
+        return histogram;
+    }
+
+    /**
+     * httpdns出错的类型和次数
+     */
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        synchronized (errorCounts) {
+            for (Map.Entry<String, AtomicLong> entry : errorCounts.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 转换成json，用于日志上报
+     */
+    public JSONObject toJson() {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            jsonObject.put("lookup", getLookupCount());
+            jsonObject.put("hit", getHitCount());
+            jsonObject.put("stale", getStaleCount());
+            jsonObject.put("miss", getMissCount());
+            jsonObject.put("fallback", getFallbackCount());
+            jsonObject.put("avgLatency", getAverageLatency());
+            jsonObject.put("latency", new JSONObject(getLatencyHistogram()));
+            jsonObject.put("errors", new JSONObject(getErrorCounts()));
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
@@ -0,0 +1,65 @@
+package com.dou361.ijkplayer.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * 把视频请求的连接失败和读取超时反馈给HttpDns，
+ * 代理、预加载和下载访问域名时出错的ip同样会被暂时停用
+ *
+ * @date 2026/10/17
+ */
+class IpFailureListener extends EventListener {
+
+    private final HttpDns httpDns;
+
+    /**
+     * 当前请求使用的连接的ip
+     */
+    private volatile InetAddress address;
+
+    IpFailureListener(HttpDns httpDns) {
+        this.httpDns = httpDns;
+    }
+
+    static EventListener.Factory factory(final HttpDns httpDns) {
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(Call call) {
+                return new IpFailureListener(httpDns);
+            }
+        };
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                              Protocol protocol, IOException ioe) {
+        if (!call.isCanceled() && proxy.type() == Proxy.Type.DIRECT && inetSocketAddress.getAddress() != null) {
+            httpDns.reportFailure(call.request().url().host(), inetSocketAddress.getAddress().getHostAddress());
+        }
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        if (connection.route().proxy().type() == Proxy.Type.DIRECT) {
+            address = connection.route().socketAddress().getAddress();
+        }
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        //主动取消和关闭不算，只统计读取超时
+        InetAddress current = address;
+        if (!call.isCanceled() && current != null && ioe instanceof SocketTimeoutException) {
+            httpDns.reportStall(call.request().url().host(), current.getHostAddress());
+        }
+    }
+}
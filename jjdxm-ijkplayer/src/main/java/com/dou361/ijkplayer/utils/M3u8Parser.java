@@ -0,0 +1,301 @@
+package com.dou361.ijkplayer.utils;
+
+import com.dou361.ijkplayer.bean.VideoijkBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.HttpUrl;
+
+/**
+ * HLS m3u8播放列表解析
+ *
+ * @date 2026/10/17
+ */
+public class M3u8Parser {
+
+    private static final String TAG_EXTINF = "#EXTINF:";
+    private static final String TAG_TARGET_DURATION = "#EXT-X-TARGETDURATION:";
+    private static final String TAG_MEDIA_SEQUENCE = "#EXT-X-MEDIA-SEQUENCE:";
+    private static final String TAG_KEY = "#EXT-X-KEY:";
+    private static final String TAG_STREAM_INF = "#EXT-X-STREAM-INF:";
+    private static final String TAG_MEDIA = "#EXT-X-MEDIA:";
+    private static final String TAG_END_LIST = "#EXT-X-ENDLIST";
+
+    private static final Pattern PATTERN_URI = Pattern.compile("URI=\"([^\"]*)\"");
+
+    private static final Pattern PATTERN_ATTRIBUTE = Pattern.compile("([A-Z0-9-]+)=(\"[^\"]*\"|[^,]*)");
+
+    /**
+     * 接口回调，重写播放列表中的地址
+     */
+    public interface UrlMapper {
+        String map(String url);
+    }
+
+    /**
+     * 一个分片
+     */
+    public static class Segment {
+        /**
+         * 分片的绝对地址
+         */
+        public final String url;
+        /**
+         * 分片时长，单位毫秒
+         */
+        public final long durationMs;
+
+        public Segment(String url, long durationMs) {
+            this.url = url;
+            this.durationMs = durationMs;
+        }
+    }
+
+    /**
+     * 媒体播放列表
+     */
+    public static class MediaPlaylist {
+        public final List<Segment> segments = new ArrayList<>();
+        /**
+         * 解密key的绝对地址
+         */
+        public final List<String> keyUrls = new ArrayList<>();
+        public long targetDurationMs;
+        public long mediaSequence;
+        /**
+         * 有#EXT-X-ENDLIST时为点播，否则为直播
+         */
+        public boolean endList;
+    }
+
+    private M3u8Parser() {
+    }
+
+    /**
+     * 地址是否是m3u8播放列表
+     */
+    public static boolean isPlaylistUrl(String url) {
+        if (url == null) {
+            return false;
+        }
+        int end = url.indexOf('?');
+        String path = end >= 0 ? url.substring(0, end) : url;
+        return path.toLowerCase().endsWith(".m3u8");
+    }
+
+    /**
+     * 是否是包含多个码流的主播放列表
+     */
+    public static boolean isMasterPlaylist(String content) {
+        return content != null && content.contains(TAG_STREAM_INF);
+    }
+
+    /**
+     * 主播放列表中是否有码流的音频放在单独的EXT-X-MEDIA音轨里，
+     * 这种码流单独播放没有声音，需要播放主播放列表由播放器组合音视频
+     */
+    public static boolean hasAlternateAudio(String content) {
+        Set<String> audioGroups = new HashSet<>();
+        List<String> streamInfs = new ArrayList<>();
+        for (String line : content.split("\r?\n")) {
+            line = line.trim();
+            if (line.startsWith(TAG_MEDIA)) {
+                Map<String, String> attributes = parseAttributes(line.substring(TAG_MEDIA.length()));
+                if ("AUDIO".equals(attributes.get("TYPE")) && attributes.containsKey("URI")
+                        && attributes.containsKey("GROUP-ID")) {
+                    audioGroups.add(attributes.get("GROUP-ID"));
+                }
+            } else if (line.startsWith(TAG_STREAM_INF)) {
+                streamInfs.add(line.substring(TAG_STREAM_INF.length()));
+            }
+        }
+        if (audioGroups.isEmpty()) {
+            return false;
+        }
+        for (String streamInf : streamInfs) {
+            String group = parseAttributes(streamInf).get("AUDIO");
+            if (group != null && audioGroups.contains(group)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析媒体播放列表
+     *
+     * @param baseUrl 播放列表的地址，用于解析相对地址
+     * @param content 播放列表内容
+     */
+    public static MediaPlaylist parseMediaPlaylist(String baseUrl, String content) {
+        MediaPlaylist playlist = new MediaPlaylist();
+        long duration = 0;
+        for (String line : content.split("\r?\n")) {
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+            if (line.startsWith(TAG_EXTINF)) {
+                String value = line.substring(TAG_EXTINF.length());
+                int comma = value.indexOf(',');
+                duration = (long) (parseDouble(comma >= 0 ? value.substring(0, comma) : value) * 1000);
+            } else if (line.startsWith(TAG_TARGET_DURATION)) {
+                playlist.targetDurationMs = (long) (parseDouble(line.substring(TAG_TARGET_DURATION.length())) * 1000);
+            } else if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
+                playlist.mediaSequence = (long) parseDouble(line.substring(TAG_MEDIA_SEQUENCE.length()));
+            } else if (line.startsWith(TAG_KEY)) {
+                Matcher matcher = PATTERN_URI.matcher(line);
+                if (matcher.find()) {
+                    String keyUrl = resolve(baseUrl, matcher.group(1));
+                    if (keyUrl != null && !playlist.keyUrls.contains(keyUrl)) {
+                        playlist.keyUrls.add(keyUrl);
+                    }
+                }
+            } else if (line.startsWith(TAG_END_LIST)) {
+                playlist.endList = true;
+            } else if (!line.startsWith("#")) {
+                String url = resolve(baseUrl, line);
+                if (url != null) {
+                    playlist.segments.add(new Segment(url, duration));
+                }
+                duration = 0;
+            }
+        }
+        return playlist;
+    }
+
+    /**
+     * 解析主播放列表，每个码流生成一个VideoijkBean，按码率从高到低排列，
+     * 不处理EXT-X-MEDIA音轨，有单独音轨时先用{@link #hasAlternateAudio(String)}判断
+     *
+     * @param baseUrl 主播放列表的地址，用于解析相对地址
+     * @param content 主播放列表内容
+     */
+    public static List<VideoijkBean> parseMasterPlaylist(String baseUrl, String content) {
+        List<VideoijkBean> variants = new ArrayList<>();
+        String streamInf = null;
+        for (String line : content.split("\r?\n")) {
+            line = line.trim();
+            if (line.startsWith(TAG_STREAM_INF)) {
+                streamInf = line.substring(TAG_STREAM_INF.length());
+            } else if (streamInf != null && line.length() > 0 && !line.startsWith("#")) {
+                String url = resolve(baseUrl, line);
+                if (url != null) {
+                    variants.add(createVariant(streamInf, url));
+                }
+                streamInf = null;
+            }
+        }
+        Collections.sort(variants, new Comparator<VideoijkBean>() {
+            @Override
+            public int compare(VideoijkBean o1, VideoijkBean o2) {
+                return Long.compare(o2.getBandwidth(), o1.getBandwidth());
+            }
+        });
+        for (int i = 0; i < variants.size(); i++) {
+            variants.get(i).setId(i);
+        }
+        return variants;
+    }
+
+    private static VideoijkBean createVariant(String attributes, String url) {
+        VideoijkBean videoijkBean = new VideoijkBean();
+        videoijkBean.setUrl(url);
+        for (Map.Entry<String, String> entry : parseAttributes(attributes).entrySet()) {
+            String name = entry.getKey();
+            String value = entry.getValue();
+            if ("BANDWIDTH".equals(name)) {
+                videoijkBean.setBandwidth((long) parseDouble(value));
+            } else if ("RESOLUTION".equals(name)) {
+                int index = value.indexOf('x');
+                if (index > 0) {
+                    videoijkBean.setWidth((int) parseDouble(value.substring(0, index)));
+                    videoijkBean.setHeight((int) parseDouble(value.substring(index + 1)));
+                }
+            } else if ("CODECS".equals(name)) {
+                videoijkBean.setCodecs(value);
+            }
+        }
+        if (videoijkBean.getHeight() > 0) {
+            videoijkBean.setStream(videoijkBean.getHeight() + "P");
+        } else if (videoijkBean.getBandwidth() > 0) {
+            videoijkBean.setStream(videoijkBean.getBandwidth() / 1000 + "K");
+        } else {
+            videoijkBean.setStream("标清");
+        }
+        return videoijkBean;
+    }
+
+    /**
+     * 解析标签的属性列表，去掉值两边的引号
+     */
+    private static Map<String, String> parseAttributes(String attributes) {
+        Map<String, String> result = new HashMap<>();
+        Matcher matcher = PATTERN_ATTRIBUTE.matcher(attributes);
+        while (matcher.find()) {
+            String value = matcher.group(2);
+            if (value.startsWith("\"") && value.endsWith("\"") && value.length() >= 2) {
+                value = value.substring(1, value.length() - 1);
+            }
+            result.put(matcher.group(1), value);
+        }
+        return result;
+    }
+
+    /**
+     * 把播放列表中的分片、子列表和URI属性中的地址转成绝对地址后交给mapper重写
+     */
+    public static String rewriteUrls(String baseUrl, String content, UrlMapper mapper) {
+        StringBuilder builder = new StringBuilder(content.length() * 2);
+        for (String line : content.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (trimmed.length() > 0 && !trimmed.startsWith("#")) {
+                String url = resolve(baseUrl, trimmed);
+                builder.append(url == null ? line : mapper.map(url));
+            } else if (trimmed.startsWith("#") && trimmed.contains("URI=\"")) {
+                Matcher matcher = PATTERN_URI.matcher(line);
+                StringBuffer buffer = new StringBuffer();
+                while (matcher.find()) {
+                    String url = resolve(baseUrl, matcher.group(1));
+                    String replacement = "URI=\"" + (url == null ? matcher.group(1) : mapper.map(url)) + "\"";
+                    matcher.appendReplacement(buffer, Matcher.quoteReplacement(replacement));
+                }
+                matcher.appendTail(buffer);
+                builder.append(buffer);
+            } else {
+                builder.append(line);
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 相对地址转成绝对地址，无法解析时返回null
+     */
+    public static String resolve(String baseUrl, String uri) {
+        HttpUrl base = HttpUrl.parse(baseUrl);
+        if (base == null) {
+            return HttpUrl.parse(uri) == null ? null : uri;
+        }
+        HttpUrl url = base.resolve(uri);
+        return url == null ? null : url.toString();
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
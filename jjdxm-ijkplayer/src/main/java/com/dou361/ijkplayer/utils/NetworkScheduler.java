@@ -0,0 +1,154 @@
+package com.dou361.ijkplayer.utils;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 库内各个网络组件共用的带宽调度，播放需要的数据严格优先，
+ * 预取和离线下载在播放缓冲低于水位时限速或者暂停。
+ * 各组件每读到一段数据调用一次{@link #acquire(int, int)}，低优先级的流量在这里被阻塞
+ *
+ * @date 2026/10/17
+ */
+public class NetworkScheduler {
+
+    /**
+     * 播放器当前需要的数据，不受限制
+     */
+    public static final int PRIORITY_PLAYBACK = 0;
+    /**
+     * 预加载和预取，播放缓冲不足时限速
+     */
+    public static final int PRIORITY_PREFETCH = 1;
+    /**
+     * 离线下载，播放缓冲不足时暂停
+     */
+    public static final int PRIORITY_DOWNLOAD = 2;
+
+    /**
+     * 播放缓冲低于这个值时暂停下载，预取限速
+     */
+    private static final long LOW_WATERMARK_MS = 10 * 1000;
+    /**
+     * 播放缓冲高于这个值时不限制低优先级流量
+     */
+    private static final long HIGH_WATERMARK_MS = 30 * 1000;
+
+    /**
+     * 缓冲在两个水位之间时低优先级流量的速率上限，单位字节/秒
+     */
+    private static final long THROTTLED_PREFETCH_RATE = 256 * 1024;
+    private static final long THROTTLED_DOWNLOAD_RATE = 128 * 1024;
+    /**
+     * 缓冲低于低水位时预取的速率上限
+     */
+    private static final long STARVED_PREFETCH_RATE = 64 * 1024;
+
+    /**
+     * 超过这个时间没有播放数据也没有缓冲上报时，认为没有在播放
+     */
+    private static final long PLAYBACK_IDLE_TIME = 2000;
+
+    private static final long WAIT_INTERVAL = 200;
+
+    private static final NetworkScheduler instance = new NetworkScheduler();
+
+    private long playbackBufferMs = -1;
+    private long lastBufferReportTime;
+    private long lastPlaybackTime;
+
+    /**
+     * 各优先级的限速窗口
+     */
+    private final long[] windowStartTime = new long[3];
+    private final long[] windowBytes = new long[3];
+
+    private NetworkScheduler() {
+    }
+
+    public static NetworkScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * 播放器上报当前缓冲的时长，未知时为-1
+     * @param bufferMs 播放位置之后已缓冲的时长，单位毫秒
+     */
+    public synchronized void setPlaybackBufferMs(long bufferMs) {
+        playbackBufferMs = bufferMs;
+        lastBufferReportTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    /**
+     * 播放停止时调用，低优先级流量立即恢复
+     */
+    public synchronized void onPlaybackStopped() {
+        playbackBufferMs = -1;
+        lastBufferReportTime = 0;
+        lastPlaybackTime = 0;
+        notifyAll();
+    }
+
+    /**
+     * 播放器缓冲的时长，没有在播放或者未知时为-1
+     */
+    public synchronized long getPlaybackBufferMs() {
+        return isPlaybackActive(System.currentTimeMillis()) ? playbackBufferMs : -1;
+    }
+
+    /**
+     * 读取数据后调用，低优先级的流量按当前播放缓冲限速或者阻塞
+     * @param priority 流量的优先级
+     * @param bytes    本次读取的字节数
+     */
+    public synchronized void acquire(int priority, int bytes) throws InterruptedIOException {
+        long now = System.currentTimeMillis();
+        if (priority == PRIORITY_PLAYBACK) {
+            lastPlaybackTime = now;
+            return;
+        }
+        windowBytes[priority] += bytes;
+        while (true) {
+            long rate = getRateLimit(priority, now);
+            if (rate < 0) {
+                windowStartTime[priority] = now;
+                windowBytes[priority] = 0;
+                return;
+            }
+            long elapsed = now - windowStartTime[priority];
+            if (elapsed > 1000 && rate > 0) {
+                //窗口过期后重新计时，之前的空闲时间不累积额度
+                windowStartTime[priority] = now - 1000;
+                windowBytes[priority] = Math.min(windowBytes[priority], rate + bytes);
+                elapsed = 1000;
+            }
+            long waitTime = rate == 0 ? WAIT_INTERVAL : windowBytes[priority] * 1000 / rate - elapsed;
+            if (waitTime <= 0) {
+                return;
+            }
+            try {
+                wait(Math.min(waitTime, WAIT_INTERVAL));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            now = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 当前的速率上限，-1为不限制，0为暂停
+     */
+    private long getRateLimit(int priority, long now) {
+        if (!isPlaybackActive(now) || playbackBufferMs < 0 || playbackBufferMs >= HIGH_WATERMARK_MS) {
+            return -1;
+        }
+        if (playbackBufferMs < LOW_WATERMARK_MS) {
+            return priority == PRIORITY_PREFETCH ? STARVED_PREFETCH_RATE : 0;
+        }
+        return priority == PRIORITY_PREFETCH ? THROTTLED_PREFETCH_RATE : THROTTLED_DOWNLOAD_RATE;
+    }
+
+    private boolean isPlaybackActive(long now) {
+        return now - lastBufferReportTime < PLAYBACK_IDLE_TIME || now - lastPlaybackTime < PLAYBACK_IDLE_TIME;
+    }
+}
@@ -2,9 +2,15 @@ package com.dou361.ijkplayer.utils;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
 import android.net.NetworkInfo;
+import android.net.RouteInfo;
+import android.os.Build;
 import android.telephony.TelephonyManager;
 
+import java.net.InetAddress;
+
 /**
  * ========================================
  * <p>
@@ -79,4 +85,48 @@ public class NetworkUtils {
         /** 未知网络 */
         return -1;
     }
+
+    /**
+     * 获取当前网络的标识，移动网络为运营商，其它网络为网卡、网关和dns服务器，用来区分不同网络下的dns缓存。
+     * wifi名称在8.1以上没有定位权限时都是&lt;unknown ssid&gt;，不能用来区分
+     */
+    public static String getNetworkIdentity(Context context) {
+        ConnectivityManager connectMgr = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectMgr == null ? null : connectMgr.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return "none";
+        }
+        if (networkInfo.getType() == ConnectivityManager.TYPE_MOBILE) {
+            TelephonyManager telephonyManager = (TelephonyManager) context
+                    .getSystemService(Context.TELEPHONY_SERVICE);
+            String operator = telephonyManager == null ? null : telephonyManager.getSimOperator();
+            return "mobile:" + operator;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            String identity = getLinkIdentity(connectMgr, connectMgr.getActiveNetwork());
+            if (identity != null) {
+                return networkInfo.getTypeName() + ":" + identity;
+            }
+        }
+        return networkInfo.getTypeName() + ":" + networkInfo.getExtraInfo();
+    }
+
+    private static String getLinkIdentity(ConnectivityManager connectMgr, Network network) {
+        LinkProperties linkProperties = network == null ? null : connectMgr.getLinkProperties(network);
+        if (linkProperties == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(linkProperties.getInterfaceName());
+        for (RouteInfo route : linkProperties.getRoutes()) {
+            if (route.isDefaultRoute() && route.getGateway() != null) {
+                builder.append(",gw=").append(route.getGateway().getHostAddress());
+            }
+        }
+        for (InetAddress dnsServer : linkProperties.getDnsServers()) {
+            builder.append(",dns=").append(dnsServer.getHostAddress());
+        }
+        return builder.toString();
+    }
 }
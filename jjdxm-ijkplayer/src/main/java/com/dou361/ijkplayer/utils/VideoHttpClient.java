@@ -0,0 +1,58 @@
+package com.dou361.ijkplayer.utils;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * 视频数据请求共用的OkHttpClient，所有请求共享连接池，通过HttpDns解析域名，
+ * seek和预加载时可以复用已经建立的TCP/TLS连接，出错的ip反馈给HttpDns
+ *
+ * @date 2026/10/17
+ */
+public class VideoHttpClient {
+
+    /**
+     * 空闲连接保持的数量
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    /**
+     * 空闲连接保持的时间
+     */
+    private static final long KEEP_ALIVE_DURATION = 5 * 60 * 1000;
+
+    private static final long CONNECT_TIMEOUT = 10 * 1000;
+
+    private static final long READ_TIMEOUT = 15 * 1000;
+
+    private static volatile OkHttpClient client;
+
+    private VideoHttpClient() {
+    }
+
+    public static OkHttpClient getInstance(Context context) {
+        if (client == null) {
+            synchronized (VideoHttpClient.class) {
+                if (client == null) {
+                    HttpDns httpDns = HttpDns.getInstance(context);
+                    client = new OkHttpClient.Builder()
+                            .dns(httpDns)
+                            .eventListenerFactory(IpFailureListener.factory(httpDns))
+                            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MILLISECONDS))
+                            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                            .connectTimeout(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+                            .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
+                            .retryOnConnectionFailure(true)
+                            .build();
+                }
+            }
+        }
+        return client;
+    }
+}
@@ -186,6 +186,10 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
      */
     private String pixelFormat = "";//Auto Select=,RGB 565=fcc-rv16,RGB 888X=fcc-rv32,YV12=fcc-yv12,默认为RGB 888X
     private boolean enableBackgroundPlay = false;
+    /**
+     * http(s)地址是否通过OkHttp读取数据，默认使用ffmpeg自带的http
+     */
+    private boolean usingOkHttpDataSource = false;
 
     public IjkVideoView(Context context) {
         super(context);
@@ -327,6 +331,17 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
         setVideoURI(Uri.parse(path));
     }
 
+    /**
+     * Sets video path using specific headers.
+     * 用ip直连时通过headers里的Host传入原来的域名，https同时用它做证书校验和SNI
+     *
+     * @param path    the path of the video.
+     * @param headers the headers for the URI request.
+     */
+    public void setVideoPath(String path, Map<String, String> headers) {
+        setVideoURI(Uri.parse(path), headers);
+    }
+
     /**
      * Sets video URI.
      *
@@ -423,7 +438,12 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
                     ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", 0);
 
                     ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "http-detect-range-support", 0);
-                    ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout", 10000000);
+                    if ("127.0.0.1".equals(mUri.getHost())) {
+                        //本地缓存代理暂停限流时会阻塞读取，网络超时由代理自己处理
+                        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout", -1);
+                    } else {
+                        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout", 10000000);
+                    }
                     ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "reconnect", 1);
 
                     ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter", 48);
@@ -439,6 +459,14 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
                     ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec", 1);
                     ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-auto-rotate", 1);
                     ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-handle-resolution-change", 1);
+
+                    //ip直连https时，证书校验和SNI使用原来的域名
+                    String host = getHostHeader();
+                    if (host != null && "https".equalsIgnoreCase(mUri.getScheme())) {
+                        int portIndex = host.indexOf(':');
+                        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "verifyhost",
+                                portIndex > 0 ? host.substring(0, portIndex) : host);
+                    }
                 }
                 mMediaPlayer = ijkMediaPlayer;
             }
@@ -472,6 +500,11 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
                     (TextUtils.isEmpty(scheme) || scheme.equalsIgnoreCase("file"))) {
                 IMediaDataSource dataSource = new FileMediaDataSource(new File(mUri.toString()));
                 mMediaPlayer.setDataSource(dataSource);
+            } else if (usingOkHttpDataSource &&
+                    (!usingAndroidPlayer || Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) &&
+                    ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+                IMediaDataSource dataSource = new OkHttpMediaDataSource(mAppContext, mUri.toString(), mHeaders);
+                mMediaPlayer.setDataSource(dataSource);
             } else if (Build.VERSION.SDK_INT > Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
                 mMediaPlayer.setDataSource(mAppContext, mUri, mHeaders);
             } else {
@@ -504,6 +537,28 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
         }
     }
 
+    /**
+     * 设置http(s)地址是否通过OkHttp读取数据，可以复用连接池和HttpDns，下次打开视频时生效
+     */
+    public void setUsingOkHttpDataSource(boolean usingOkHttpDataSource) {
+        this.usingOkHttpDataSource = usingOkHttpDataSource;
+    }
+
+    /**
+     * 获取请求头中的Host，没有时为null
+     */
+    private String getHostHeader() {
+        if (mHeaders == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : mHeaders.entrySet()) {
+            if ("Host".equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
     public void setMediaController(IMediaController controller) {
         if (mMediaController != null) {
             mMediaController.hide();
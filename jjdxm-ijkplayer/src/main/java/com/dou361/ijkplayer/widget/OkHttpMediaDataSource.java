@@ -0,0 +1,191 @@
+package com.dou361.ijkplayer.widget;
+
+import android.content.Context;
+
+import com.dou361.ijkplayer.utils.NetworkScheduler;
+import com.dou361.ijkplayer.utils.VideoHttpClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
+
+/**
+ * 基于OkHttp的网络媒体数据源，连接池复用、http2和HttpDns解析都由共用的OkHttpClient提供，
+ * seek时发区间请求，顺序读取时按块预读
+ *
+ * @date 2026/10/17
+ */
+public class OkHttpMediaDataSource implements IMediaDataSource {
+
+    /**
+     * 预读缓冲区大小
+     */
+    private static final int READ_AHEAD_SIZE = 256 * 1024;
+
+    /**
+     * 向前跳转距离小于这个值时直接跳过数据，不重新建立请求
+     */
+    private static final long SKIP_THRESHOLD = 512 * 1024;
+
+    private static final Pattern PATTERN_CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private final OkHttpClient client;
+    private final HttpUrl url;
+    private final Map<String, String> headers;
+
+    private Response response;
+    private InputStream inputStream;
+    /**
+     * 当前请求流读到的位置
+     */
+    private long streamPosition;
+
+    private final byte[] readAheadBuffer = new byte[READ_AHEAD_SIZE];
+    private long bufferStart;
+    private int bufferLength;
+
+    private long size = -1;
+
+    public OkHttpMediaDataSource(Context context, String url, Map<String, String> headers) throws IOException {
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        if (httpUrl == null) {
+            throw new IOException("invalid url " + url);
+        }
+        //地址中的域名被替换成ip时，换回Host里的域名，由HttpDns解析，证书校验也能通过
+        String host = getHeader(headers, "Host");
+        if (host != null) {
+            int portIndex = host.indexOf(':');
+            httpUrl = httpUrl.newBuilder().host(portIndex > 0 ? host.substring(0, portIndex) : host).build();
+        }
+        this.client = VideoHttpClient.getInstance(context);
+        this.url = httpUrl;
+        this.headers = headers;
+    }
+
+    @Override
+    public synchronized int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+        if (this.size >= 0 && position >= this.size) {
+            return -1;
+        }
+        if (position < bufferStart || position >= bufferStart + bufferLength) {
+            if (!fillBuffer(position)) {
+                return -1;
+            }
+        }
+        int index = (int) (position - bufferStart);
+        int count = Math.min(size, bufferLength - index);
+        System.arraycopy(readAheadBuffer, index, buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public synchronized long getSize() throws IOException {
+        if (size < 0 && response == null) {
+            openStream(0);
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeStream();
+        bufferLength = 0;
+    }
+
+    /**
+     * 从position开始预读一块数据，到达文件结尾时返回false
+     */
+    private boolean fillBuffer(long position) throws IOException {
+        if (inputStream == null || position < streamPosition || position - streamPosition > SKIP_THRESHOLD) {
+            openStream(position);
+        }
+        while (streamPosition < position) {
+            int read = inputStream.read(readAheadBuffer, 0, (int) Math.min(position - streamPosition, readAheadBuffer.length));
+            if (read < 0) {
+                return false;
+            }
+            streamPosition += read;
+        }
+        bufferStart = streamPosition;
+        bufferLength = 0;
+        //至少读到一次数据，之后尽量把缓冲区读满，减少ffmpeg的小块读取次数
+        while (bufferLength < readAheadBuffer.length) {
+            int read = inputStream.read(readAheadBuffer, bufferLength, readAheadBuffer.length - bufferLength);
+            if (read < 0) {
+                break;
+            }
+            bufferLength += read;
+            streamPosition += read;
+            NetworkScheduler.getInstance().acquire(NetworkScheduler.PRIORITY_PLAYBACK, read);
+            if (inputStream.available() <= 0 && bufferLength > 0) {
+                break;
+            }
+        }
+        return bufferLength > 0;
+    }
+
+    private void openStream(long position) throws IOException {
+        closeStream();
+        Request.Builder builder = new Request.Builder().url(url);
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (!"Host".equalsIgnoreCase(entry.getKey())) {
+                    builder.header(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (position > 0) {
+            builder.header("Range", "bytes=" + position + "-");
+        }
+        Response response = client.newCall(builder.build()).execute();
+        if (!response.isSuccessful() || response.body() == null) {
+            response.close();
+            throw new IOException("response " + response.code());
+        }
+        this.response = response;
+        this.inputStream = response.body().byteStream();
+        this.streamPosition = position;
+        if (response.code() == 206) {
+            String contentRange = response.header("Content-Range");
+            Matcher matcher = contentRange == null ? null : PATTERN_CONTENT_RANGE.matcher(contentRange);
+            if (matcher != null && matcher.find() && !"*".equals(matcher.group(3))) {
+                size = Long.parseLong(matcher.group(3));
+            }
+        } else {
+            size = response.body().contentLength();
+            //服务器不支持区间请求时从头读取，跳过前面的数据
+            streamPosition = 0;
+        }
+    }
+
+    private void closeStream() {
+        if (response != null) {
+            response.close();
+            response = null;
+            inputStream = null;
+        }
+    }
+
+    private static String getHeader(Map<String, String> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -8,6 +8,7 @@ import android.media.AudioManager;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.style.RelativeSizeSpan;
@@ -33,7 +34,10 @@ import com.alibaba.android.arouter.launcher.ARouter;
 import com.dou361.ijkplayer.R;
 import com.dou361.ijkplayer.adapter.StreamSelectAdapter;
 import com.dou361.ijkplayer.bean.VideoijkBean;
+import com.dou361.ijkplayer.cache.CacheWarmer;
+import com.dou361.ijkplayer.cache.VideoCacheProxy;
 import com.dou361.ijkplayer.domain.LogEnum;
+import com.dou361.ijkplayer.download.DownloadManager;
 import com.dou361.ijkplayer.listener.OnChargeBtnClickListener;
 import com.dou361.ijkplayer.listener.OnCompleteListener;
 import com.dou361.ijkplayer.listener.OnControlPanelVisibilityChangeListener;
@@ -42,16 +46,22 @@ import com.dou361.ijkplayer.listener.OnPlayerBackListener;
 import com.dou361.ijkplayer.listener.OnShowThumbnailListener;
 import com.dou361.ijkplayer.utils.BrightnessUtil;
 import com.dou361.ijkplayer.utils.HttpDns;
+import com.dou361.ijkplayer.utils.M3u8Parser;
+import com.dou361.ijkplayer.utils.NetworkScheduler;
 import com.dou361.ijkplayer.utils.NetworkUtils;
 import com.dou361.ijkplayer.utils.RouterUtil;
 import com.dou361.ijkplayer.utils.ToastUtil;
+import com.dou361.ijkplayer.utils.VideoHttpClient;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.json.JSONObject;
 
+import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -59,6 +69,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
+import okhttp3.Request;
+import okhttp3.Response;
 import rx.Observable;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
@@ -367,6 +379,44 @@ public class PlayerView {
 
     private static final Pattern PATTERN_URL_VOD = Pattern.compile("(http://|https://|//)vod(\\d*)\\.xxt\\.cn/.*");
 
+    /**
+     * 当前播放地址替换ip前的域名，没有替换时为null
+     */
+    private String currentHost;
+    /**
+     * 当前播放地址替换成的ip
+     */
+    private String currentIp;
+    /**
+     * 本次开始播放时解析的域名和选出的ip，用于统计，经过代理播放时地址中仍是域名
+     */
+    private String resolvedHost;
+    private String resolvedIp;
+    /**
+     * 本次开始播放时域名解析的耗时，单位毫秒，没有解析时为-1
+     */
+    private long dnsCostTime = -1;
+    /**
+     * 点播是否通过本地代理边下边播，默认开启
+     */
+    private boolean isCacheEnable = true;
+    /**
+     * http(s) flv直播是否在本地录制支持时移，默认开启
+     */
+    private boolean isTimeShiftEnable = true;
+    /**
+     * 直播时移回看的时长，单位毫秒，0为直播最新位置
+     */
+    private long timeShiftOffset;
+    /**
+     * 暂停时被限制拉取的地址，继续播放、停止和销毁时放开
+     */
+    private String pausedFetchUrl;
+    /**
+     * 当前视频离线下载完成的本地文件，开始播放时在后台线程查找，没有时为null
+     */
+    private volatile File downloadedFile;
+
 
     /** 定时器，用于记录观看时长日志 */
     private ScheduledExecutorService watchExecutorService;
@@ -392,7 +442,11 @@ public class PlayerView {
                 case MESSAGE_SEEK_NEW_POSITION:
                     if (!isLive && newPosition >= 0) {
                         videoView.seekTo((int) newPosition);
+                        if (pausedFetchUrl != null) {
+                            limitPausedFetch(newPosition);
+                        }
                         newPosition = -1;
+                        scheduleChargeCutoff();
                     }
                     break;
                 /**滑动中，同步播放进度*/
@@ -477,7 +531,7 @@ public class PlayerView {
             } else if (v.getId() == R.id.app_video_play || v.getId() == R.id.play_icon) {
                 /**视频播放和暂停*/
                 if (videoView.isPlaying()) {
-                    if (isLive) {
+                    if (isLive && !isTimeShift()) {
                         videoView.stopPlayback();
                     } else {
                         pausePlay();
@@ -803,6 +857,8 @@ public class PlayerView {
         videoView.setOnErrorListener(new IMediaPlayer.OnErrorListener() {
             @Override
             public boolean onError(IMediaPlayer iMediaPlayer, int i, int i1) {
+                //ijkplayer的具体错误类型在extra中，what一般是MEDIA_ERROR_UNKNOWN
+                reportIpErrorIfNeeded(i, i1);
                 statusChange(PlayStateParams.STATE_ERROR);
                 return false;
             }
@@ -958,6 +1014,8 @@ public class PlayerView {
         mHandler.removeMessages(MESSAGE_SHOW_PROGRESS);
         mHandler.removeCallbacksAndMessages(null);
         videoView.stopPlayback();
+        NetworkScheduler.getInstance().onPlaybackStopped();
+        releasePausedFetch();
         cancelWatchExecutorService();
         saveWatchVideoTime();
         return this;
@@ -1109,7 +1167,52 @@ public class PlayerView {
         if (list != null && list.size() > 0) {
             listVideos.addAll(list);
             switchStream(0);
+            preResolvePlaySource();
+        }
+        return this;
+    }
+
+    /**
+     * 预加载接下来可能播放的视频，只缓存文件头和开头几秒，打开时首帧直接从本地读取，
+     * 为了不消耗流量，只在WiFi和以太网下预加载
+     *
+     * @param list 接下来要播放的视频，按顺序预加载
+     */
+    public PlayerView preloadPlaySource(List<VideoijkBean> list) {
+        if (!isCacheEnable || list == null) {
+            return this;
+        }
+        int networkType = NetworkUtils.getNetworkType(mContext);
+        if (networkType != 2 && networkType != 3) {
+            return this;
+        }
+        List<String> urls = new ArrayList<String>();
+        for (VideoijkBean videoijkBean : list) {
+            if (videoijkBean != null && VideoCacheProxy.isCacheable(videoijkBean.getUrl())) {
+                urls.add(videoijkBean.getUrl());
+            }
         }
+        VideoCacheProxy.getInstance(mContext).preload(urls);
+        return this;
+    }
+
+    /**
+     * 把接下来可能打开的视频加入空闲预热队列，等到不计流量的网络并且充电或者空闲时
+     * 在后台缓存文件头和开头几秒，下次打开直接从本地起播
+     *
+     * @param list 接下来要播放的视频，按顺序预热
+     */
+    public PlayerView warmUpPlaySource(List<VideoijkBean> list) {
+        if (!isCacheEnable || list == null) {
+            return this;
+        }
+        List<String> urls = new ArrayList<String>();
+        for (VideoijkBean videoijkBean : list) {
+            if (videoijkBean != null && VideoCacheProxy.isCacheable(videoijkBean.getUrl())) {
+                urls.add(videoijkBean.getUrl());
+            }
+        }
+        CacheWarmer.enqueue(mContext, urls);
         return this;
     }
 
@@ -1122,6 +1225,7 @@ public class PlayerView {
         if (videoijkBean != null) {
             listVideos.add(videoijkBean);
             switchStream(0);
+            preResolvePlaySource();
         }
         return this;
     }
@@ -1159,6 +1263,95 @@ public class PlayerView {
 
 
 
+    /**
+     * 设置HLS主播放列表地址，解析出各个码流作为清晰度列表，
+     * 根据当前网络选择合适的码流，不是主播放列表或者音频在单独的音轨中时直接播放该地址
+     *
+     * @param url        HLS主播放列表地址
+     * @param isAutoPlay 解析完成后是否自动开始播放
+     */
+    public PlayerView setHlsPlaySource(final String url, final boolean isAutoPlay) {
+        Observable.create(new Observable.OnSubscribe<List<VideoijkBean>>() {
+            @Override
+            public void call(Subscriber<? super List<VideoijkBean>> subscriber) {
+                List<VideoijkBean> variants = new ArrayList<VideoijkBean>();
+                Request request = new Request.Builder().url(url).build();
+                try {
+                    Response response = VideoHttpClient.getInstance(mContext).newCall(request).execute();
+                    try {
+                        if (response.isSuccessful() && response.body() != null) {
+                            String content = response.body().string();
+                            //码流依赖单独的音轨时直接播放主播放列表，由播放器选择码流并组合音频
+                            if (M3u8Parser.isMasterPlaylist(content) && !M3u8Parser.hasAlternateAudio(content)) {
+                                variants = M3u8Parser.parseMasterPlaylist(response.request().url().toString(), content);
+                            }
+                        }
+                    } finally {
+                        response.close();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                subscriber.onNext(variants);
+                subscriber.onCompleted();
+            }
+        }).subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Subscriber<List<VideoijkBean>>() {
+                    @Override
+                    public void onCompleted() {
+
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+
+                    }
+
+                    @Override
+                    public void onNext(List<VideoijkBean> variants) {
+                        if (variants.isEmpty()) {
+                            setPlaySource(url);
+                        } else {
+                            setPlaySource(variants);
+                            switchStream(selectHlsVariant(variants));
+                        }
+                        if (isAutoPlay) {
+                            startPlay();
+                        }
+                    }
+                });
+        return this;
+    }
+
+    /**
+     * 按网络类型选择码流，WiFi和以太网用最高码率，移动网络选不超过对应上限的最高码率
+     *
+     * @param variants 按码率从高到低排列的码流
+     */
+    private int selectHlsVariant(List<VideoijkBean> variants) {
+        long maxBandwidth;
+        switch (NetworkUtils.getNetworkType(mContext)) {
+            case 2:
+            case 3:
+                return 0;
+            case 6:
+                maxBandwidth = 3000 * 1000;
+                break;
+            case 5:
+                maxBandwidth = 800 * 1000;
+                break;
+            default:
+                return variants.size() - 1;
+        }
+        for (int i = 0; i < variants.size(); i++) {
+            if (variants.get(i).getBandwidth() <= maxBandwidth) {
+                return i;
+            }
+        }
+        return variants.size() - 1;
+    }
+
     /**
      * 开始播放
      */
@@ -1166,6 +1359,8 @@ public class PlayerView {
         Observable.create(new Observable.OnSubscribe<Boolean>() {
             @Override
             public void call(Subscriber<? super Boolean> subscriber) {
+                //查找离线下载需要读取下载记录，放在后台线程
+                downloadedFile = isLive ? null : DownloadManager.getInstance(mContext).getDownloadedFile(getOriginUrl());
                 checkAndConvertDomain2Ip();
                 subscriber.onNext(true);
                 subscriber.onCompleted();
@@ -1185,6 +1380,7 @@ public class PlayerView {
 
                     @Override
                     public void onNext(Boolean flag) {
+                        saveDnsLog();
                         realStartPlay();
                     }
                 });
@@ -1194,13 +1390,16 @@ public class PlayerView {
 
     public void realStartPlay() {
         if (isLive) {
-            videoView.setVideoPath(currentUrl);
-            videoView.seekTo(0);
+            //时移直播暂停后连接还在，继续播放接着读本地录制的数据
+            if (!(isTimeShift() && videoView.isPaused())) {
+                setVideoPath();
+                videoView.seekTo(0);
+            }
         } else {
             if (isHasSwitchStream || status == PlayStateParams.STATE_ERROR) {
                 //换源之后声音可播，画面卡住，主要是渲染问题，目前只是提供了软解方式，后期提供设置方式
                 videoView.setRender(videoView.RENDER_TEXTURE_VIEW);
-                videoView.setVideoPath(currentUrl);
+                setVideoPath();
                 videoView.seekTo(currentPosition);
                 isHasSwitchStream = false;
             }
@@ -1216,7 +1415,9 @@ public class PlayerView {
                     if (!videoView.isPaused()) {
                         mHandler.postDelayed(showLoadingRunable,1000);
                     }
+                    releasePausedFetch();
                     videoView.start();
+                    scheduleChargeCutoff();
                     startWatchExecutorService();
                     if (isErrorStop) {
                         videoView.seekTo(currentPosition);
@@ -1231,6 +1432,75 @@ public class PlayerView {
         }
     }
 
+    /**
+     * 设置播放地址，地址中的域名替换成ip时，通过Host头带上原来的域名，
+     * 保证cdn虚拟主机和https证书校验正常
+     */
+    private void setVideoPath() {
+        //代理和离线下载都按域名地址记录，这里用回域名地址，同一个视频不随ip变化
+        String originUrl = getOriginUrl();
+        if (!isLive && downloadedFile != null && downloadedFile.exists()) {
+            //已经离线下载完成的视频直接播放本地文件，不走网络
+            videoView.setVideoPath(downloadedFile.getAbsolutePath());
+            return;
+        }
+        if (isTimeShift()) {
+            //flv直播经过代理录制到本地，暂停、回看和网络短暂断开都不需要重连直播源
+            videoView.setVideoPath(VideoCacheProxy.getInstance(mContext).getTimeShiftUrl(originUrl, timeShiftOffset));
+            return;
+        }
+        if (isProxyPlay()) {
+            VideoCacheProxy cacheProxy = VideoCacheProxy.getInstance(mContext);
+            if (isCharge && !isLive) {
+                //试看视频只拉取试看范围内的数据，mp4的时长从moov中读取，其它格式准备完成后再设置时长
+                cacheProxy.setPreviewLimit(originUrl, maxPlaytime, getDuration());
+            } else {
+                cacheProxy.clearPreviewLimit();
+            }
+            videoView.setVideoPath(cacheProxy.getProxyUrl(originUrl));
+            return;
+        }
+        if (currentHost == null || currentIp == null) {
+            videoView.setVideoPath(currentUrl);
+            return;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        try {
+            URL targetURL = new URL(currentUrl);
+            if (targetURL.getPort() != -1 && targetURL.getPort() != targetURL.getDefaultPort()) {
+                headers.put("Host", currentHost + ":" + targetURL.getPort());
+            } else {
+                headers.put("Host", currentHost);
+            }
+        } catch (Exception e) {
+            headers.put("Host", currentHost);
+        }
+        videoView.setVideoPath(currentUrl, headers);
+    }
+
+    /**
+     * 当前地址是否经过本地代理播放，点播和时移直播都经过代理，
+     * 其它直播只有HLS经过代理，用来改写播放列表和预取分片
+     */
+    private boolean isProxyPlay() {
+        if (isTimeShift()) {
+            return true;
+        }
+        return isCacheEnable && currentUrl != null && (!isLive || M3u8Parser.isPlaylistUrl(currentUrl))
+                && VideoCacheProxy.isCacheable(currentUrl)
+                && VideoCacheProxy.getInstance(mContext).isProxyAvailable();
+    }
+
+    /**
+     * 获取替换ip之前的原播放地址
+     */
+    private String getOriginUrl() {
+        if (currentHost != null && currentIp != null) {
+            return currentUrl.replaceFirst(Pattern.quote(currentIp), Matcher.quoteReplacement(currentHost));
+        }
+        return currentUrl;
+    }
+
     /**
      * 设置视频名称
      */
@@ -1240,12 +1510,73 @@ public class PlayerView {
     }
 
     private void checkAndConvertDomain2Ip() {
+        dnsCostTime = -1;
+        resolvedHost = null;
+        resolvedIp = null;
+        if (downloadedFile != null) {
+            return;
+        }
+        if (isProxyPlay()) {
+            //经过代理时播放器只连127.0.0.1，地址保持域名不变，代理的OkHttp通过HttpDns解析，
+            //这里先选出最快的ip，代理连接时优先使用，同时记录解析耗时
+            long startTime = SystemClock.elapsedRealtime();
+            try {
+                URL targetURL = new URL(currentUrl);
+                String host = targetURL.getHost();
+                HttpDns httpDns = HttpDns.getInstance(mActivity);
+                httpDns.addHotHost(host);
+                int port = targetURL.getPort() != -1 ? targetURL.getPort() : targetURL.getDefaultPort();
+                resolvedHost = host;
+                resolvedIp = httpDns.getFastestIp(host, port);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            dnsCostTime = SystemClock.elapsedRealtime() - startTime;
+            return;
+        }
         if (!hasConvertDomain2Ip()) {
+            long startTime = SystemClock.elapsedRealtime();
             try {
                 URL targetURL = new URL(currentUrl);
                 String host = targetURL.getHost();
-                String ip = HttpDns.getInstance(mActivity).getIp(host);
-                currentUrl = currentUrl.replace(host,ip);
+                HttpDns httpDns = HttpDns.getInstance(mActivity);
+                //点播域名在过期前主动刷新，下次播放不用等待解析
+                httpDns.addHotHost(host);
+                int port = targetURL.getPort() != -1 ? targetURL.getPort() : targetURL.getDefaultPort();
+                //有多个ip时选最先连上的，避开拥塞的cdn节点
+                String ip = httpDns.getFastestIp(host, port);
+                //只替换地址里的主机名，路径和参数中的同名字符串保持不变
+                currentUrl = currentUrl.replaceFirst(Pattern.quote(host), Matcher.quoteReplacement(ip));
+                currentHost = host;
+                currentIp = ip;
+                resolvedHost = host;
+                resolvedIp = ip;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            dnsCostTime = SystemClock.elapsedRealtime() - startTime;
+        }
+    }
+
+    /**
+     * 设置播放地址后，在后台提前解析所有码流的域名并测速，切换码流和开始播放时不用再等待
+     */
+    private void preResolvePlaySource() {
+        HttpDns httpDns = HttpDns.getInstance(mActivity);
+        List<String> hosts = new ArrayList<String>();
+        for (VideoijkBean videoijkBean : listVideos) {
+            String url = videoijkBean.getUrl();
+            if (url == null || !PATTERN_URL_VOD.matcher(url).matches()) {
+                continue;
+            }
+            try {
+                URL targetURL = new URL(url);
+                int port = targetURL.getPort() != -1 ? targetURL.getPort() : targetURL.getDefaultPort();
+                String key = targetURL.getHost() + ":" + port;
+                if (!hosts.contains(key)) {
+                    hosts.add(key);
+                    httpDns.preResolve(targetURL.getHost(), port, true);
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -1257,6 +1588,28 @@ public class PlayerView {
         return !mc.matches();
     }
 
+    /**
+     * 播放地址替换过ip时，把连接失败和中断反馈给HttpDns，重连时换用其它ip
+     */
+    private void reportIpErrorIfNeeded(int what, int extra) {
+        if (currentHost == null || currentIp == null) {
+            return;
+        }
+        HttpDns httpDns = HttpDns.getInstance(mActivity);
+        if (extra == PlayStateParams.MEDIA_ERROR_IO || extra == PlayStateParams.MEDIA_ERROR_TIMED_OUT
+                || what == PlayStateParams.MEDIA_ERROR_IO || what == PlayStateParams.MEDIA_ERROR_TIMED_OUT) {
+            httpDns.reportFailure(currentHost, currentIp);
+        } else if (what == PlayStateParams.MEDIA_INFO_VIDEO_INTERRUPT) {
+            httpDns.reportStall(currentHost, currentIp);
+        } else {
+            return;
+        }
+        //恢复成域名地址，重新播放时重新选择ip
+        currentUrl = getOriginUrl();
+        currentHost = null;
+        currentIp = null;
+    }
+
     /**
      * 选择要播放的流
      */
@@ -1264,6 +1617,8 @@ public class PlayerView {
         if (listVideos.size() > index) {
             tv_steam.setText(listVideos.get(index).getStream());
             currentUrl = listVideos.get(index).getUrl();
+            currentHost = null;
+            currentIp = null;
             currentSelect = index;
             for (int i = 0; i < listVideos.size(); i++) {
                 if (i == index) {
@@ -1300,10 +1655,39 @@ public class PlayerView {
         savePlayRecord();
         videoView.pause();
         mHandler.removeMessages(MESSAGE_SHOW_PROGRESS);
+        mHandler.removeCallbacks(chargeCutoffRunnable);
         cancelWatchExecutorService();
+        //暂停后不再需要给播放让路，预取和下载恢复全速
+        NetworkScheduler.getInstance().onPlaybackStopped();
+        limitPausedFetch(currentPosition);
         return this;
     }
 
+    /**
+     * 暂停时代理只拉取播放位置之后一小段，不浪费流量，暂停中seek时按新位置重新限制
+     */
+    private void limitPausedFetch(long positionMs) {
+        if (!isCacheEnable || isLive) {
+            return;
+        }
+        String url = getOriginUrl();
+        if (pausedFetchUrl != null && !pausedFetchUrl.equals(url)) {
+            releasePausedFetch();
+        }
+        pausedFetchUrl = url;
+        VideoCacheProxy.getInstance(mContext).onPlaybackPaused(url, positionMs, getDuration());
+    }
+
+    /**
+     * 放开暂停时的拉取限制，被阻塞的代理连接继续下载或者随播放器连接一起结束
+     */
+    private void releasePausedFetch() {
+        if (pausedFetchUrl != null) {
+            VideoCacheProxy.getInstance(mContext).onPlaybackResumed(pausedFetchUrl);
+            pausedFetchUrl = null;
+        }
+    }
+
     /**
      * 停止播放
      */
@@ -1313,10 +1697,17 @@ public class PlayerView {
         saveWatchVideoTime();
 
         videoView.stopPlayback();
+        NetworkScheduler.getInstance().onPlaybackStopped();
+        releasePausedFetch();
+        if (isTimeShift()) {
+            VideoCacheProxy.getInstance(mContext).stopTimeShift();
+        }
+        timeShiftOffset = 0;
         isErrorStop = false;
         if (mHandler != null) {
             mHandler.removeMessages(MESSAGE_RESTART_PLAY);
             mHandler.removeMessages(MESSAGE_SHOW_PROGRESS);
+            mHandler.removeCallbacks(chargeCutoffRunnable);
         }
         return this;
     }
@@ -1326,6 +1717,9 @@ public class PlayerView {
      */
     public PlayerView seekTo(int playtime) {
         videoView.seekTo(playtime);
+        if (pausedFetchUrl != null) {
+            limitPausedFetch(playtime);
+        }
         return this;
     }
 
@@ -1366,6 +1760,85 @@ public class PlayerView {
         return this;
     }
 
+    /**
+     * 设置点播是否边下边播，开启后看过的部分再次播放时直接读本地缓存
+     *
+     * @param isCacheEnable true为开启缓存 false为直接播放网络地址
+     */
+    public PlayerView setCacheEnable(boolean isCacheEnable) {
+        this.isCacheEnable = isCacheEnable;
+        return this;
+    }
+
+    /**
+     * 设置http(s) flv直播是否支持时移，开启后本地录制最近一段直播，可以暂停和回看
+     *
+     * @param isTimeShiftEnable true为开启时移 false为直接播放直播源
+     */
+    public PlayerView setTimeShiftEnable(boolean isTimeShiftEnable) {
+        this.isTimeShiftEnable = isTimeShiftEnable;
+        return this;
+    }
+
+    /**
+     * 直播回看，从直播最新位置往前offsetMs开始播放
+     *
+     * @param offsetMs 回看的时长，单位毫秒，超出已录制的范围时从最早的位置开始
+     */
+    public PlayerView timeShift(long offsetMs) {
+        if (!isTimeShift()) {
+            return this;
+        }
+        timeShiftOffset = Math.max(0, offsetMs);
+        //断开当前的代理连接，重新从对应的关键帧开始读取
+        videoView.stopPlayback();
+        startPlay();
+        return this;
+    }
+
+    /**
+     * 回到直播最新位置
+     */
+    public PlayerView seekToLive() {
+        return timeShift(0);
+    }
+
+    /**
+     * 当前直播可以回看的时长，单位毫秒
+     */
+    public long getTimeShiftAvailable() {
+        return isTimeShift() ? VideoCacheProxy.getInstance(mContext).getTimeShiftAvailableMs() : 0;
+    }
+
+    /**
+     * 当前是否在播放可以时移的直播
+     */
+    private boolean isTimeShift() {
+        return isTimeShiftEnable && isLive && currentUrl != null
+                && VideoCacheProxy.isTimeShiftSupported(getOriginUrl());
+    }
+
+    /**
+     * 设置http(s)地址是否通过OkHttp读取数据，seek时复用已经建立的连接
+     *
+     * @param isOkHttpEnable true为使用OkHttp false为使用ffmpeg自带的http
+     */
+    public PlayerView setOkHttpDataSourceEnable(boolean isOkHttpEnable) {
+        videoView.setUsingOkHttpDataSource(isOkHttpEnable);
+        return this;
+    }
+
+    /**
+     * 设置暂停时缓存代理允许超前拉取的距离，默认10秒
+     *
+     * @param aheadMs    超前的时长，单位毫秒，小于等于0时按字节数限制
+     * @param aheadBytes 超前的字节数，无法按时长换算时也使用这个值
+     */
+    public PlayerView setPausedFetchLimit(long aheadMs, long aheadBytes) {
+        VideoCacheProxy.getInstance(mContext).setPausedFetchLimit(aheadMs, aheadBytes);
+        return this;
+    }
+
     /**
      * 设置最大观看时长
      *
@@ -1830,10 +2303,58 @@ public class PlayerView {
         }
     };
 
+    /**
+     * 试看结束时停止播放，到时间时播放位置还没到(比如中途缓冲)就按剩余时长重新安排
+     */
+    Runnable chargeCutoffRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!isCharge || isLive) {
+                return;
+            }
+            long remain = maxPlaytime - videoView.getCurrentPosition();
+            if (remain > 0) {
+                mHandler.postDelayed(this, remain);
+                return;
+            }
+            if (!videoView.isPaused()) {
+                hideStatusUI();
+                query.id(R.id.app_video_freeTie).visible();
+                pausePlay();
+            }
+            mHandler.removeMessages(MESSAGE_SHOW_PROGRESS);
+        }
+    };
+
+    /**
+     * 开始播放和跳转后按当前位置安排试看结束的时间，同时把试看时长交给缓存代理限制拉取范围
+     */
+    private void scheduleChargeCutoff() {
+        mHandler.removeCallbacks(chargeCutoffRunnable);
+        if (!isCharge || isLive) {
+            return;
+        }
+        updatePreviewLimit();
+        mHandler.postDelayed(chargeCutoffRunnable, Math.max(0, maxPlaytime - videoView.getCurrentPosition()));
+    }
+
+    /**
+     * 把试看时长交给缓存代理限制拉取范围，不是mp4的视频要准备完成后才知道时长，这时才开始限制
+     */
+    private void updatePreviewLimit() {
+        if (isCharge && !isLive && isCacheEnable) {
+            VideoCacheProxy.getInstance(mContext).setPreviewLimit(getOriginUrl(), maxPlaytime, videoView.getDuration());
+        }
+    }
+
     /**
      * 状态改变同步UI
      */
     private void statusChange(int newStatus) {
+        reportIpErrorIfNeeded(newStatus, 0);
+        if (newStatus == PlayStateParams.STATE_PREPARED) {
+            updatePreviewLimit();
+        }
         if (newStatus == PlayStateParams.STATE_COMPLETED) {
             status = PlayStateParams.STATE_COMPLETED;
             currentPosition = 0;
@@ -2137,6 +2658,8 @@ public class PlayerView {
             int percent = videoView.getBufferPercentage();
             seekBar.setSecondaryProgress(percent * 10);
         }
+        //把播放器缓冲的时长告诉调度器，缓冲不足时预取限速、下载暂停
+        NetworkScheduler.getInstance().setPlaybackBufferMs(duration > 0 ? Math.max(0, duration * videoView.getBufferPercentage() / 100 - currentPosition) : -1);
 
         if (isCharge && maxPlaytime + 1000 < currentPosition) {
             if (!videoView.isPaused()) {
@@ -2190,7 +2713,7 @@ public class PlayerView {
      */
     private void updatePausePlay() {
         if (videoView.isPlaying()) {
-            if (isLive) {
+            if (isLive && !isTimeShift()) {
                 iv_bar_player.setImageResource(R.drawable.simple_player_stop_white_24dp);
             } else {
                 iv_bar_player.setImageResource(R.drawable.simple_player_icon_media_pause);
@@ -2504,6 +3027,26 @@ public class PlayerView {
         }
     }
 
+    /**
+     * 记录本次播放的域名解析耗时和HttpDns的累计统计
+     */
+    private void saveDnsLog() {
+        if (dnsCostTime < 0 || mOnLogListener == null) {
+            return;
+        }
+        try {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("host", resolvedHost);
+            jsonObject.put("ip", resolvedIp);
+            jsonObject.put("dnsTime", dnsCostTime);
+            jsonObject.put("metrics", HttpDns.getInstance(mActivity).getMetrics().toJson());
+            jsonObject.put("race", HttpDns.getInstance(mActivity).getRaceStats().toString());
+            saveLog(LogEnum.LOG_DNS, jsonObject.toString());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     private void saveLog(LogEnum logEnum, Object data) {
         if (mOnLogListener!=null) {
             mOnLogListener.onLog(logEnum,data);
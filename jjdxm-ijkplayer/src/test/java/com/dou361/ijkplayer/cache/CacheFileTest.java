@@ -0,0 +1,149 @@
+package com.dou361.ijkplayer.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * 稀疏缓存文件和journal恢复
+ */
+public class CacheFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mergeRanges() throws Exception {
+        CacheFile cacheFile = new CacheFile(folder.getRoot(), "key");
+        try {
+            cacheFile.setInfo(100, "video/mp4", null);
+            cacheFile.write(0, new byte[10], 0, 10);
+            cacheFile.write(20, new byte[10], 0, 10);
+            assertEquals(10, cacheFile.available(0));
+            assertEquals(5, cacheFile.available(5));
+            assertEquals(0, cacheFile.available(10));
+            assertEquals(20, cacheFile.nextCachedPosition(10));
+            assertEquals(-1, cacheFile.nextCachedPosition(20));
+            //补上中间的空洞后合并成一段
+            cacheFile.write(10, new byte[10], 0, 10);
+            assertEquals(30, cacheFile.available(0));
+            assertEquals(30, cacheFile.getCachedSize());
+            assertFalse(cacheFile.isCompleted());
+        } finally {
+            cacheFile.close();
+        }
+    }
+
+    @Test
+    public void readWrittenData() throws Exception {
+        CacheFile cacheFile = new CacheFile(folder.getRoot(), "key");
+        try {
+            cacheFile.setInfo(8, "video/mp4", null);
+            cacheFile.write(4, new byte[]{5, 6, 7, 8}, 0, 4);
+            cacheFile.write(0, new byte[]{1, 2, 3, 4}, 0, 4);
+            assertTrue(cacheFile.isCompleted());
+            byte[] buffer = new byte[8];
+            assertEquals(8, cacheFile.read(0, buffer, 0, 8));
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, buffer);
+        } finally {
+            cacheFile.close();
+        }
+    }
+
+    @Test
+    public void restoreFromJournal() throws Exception {
+        CacheFile cacheFile = new CacheFile(folder.getRoot(), "key");
+        cacheFile.setInfo(100, "video/mp4", "\"v1\"");
+        cacheFile.write(0, new byte[10], 0, 10);
+        cacheFile.write(50, new byte[20], 0, 20);
+        cacheFile.close();
+
+        CacheFile restored = new CacheFile(folder.getRoot(), "key");
+        try {
+            assertEquals(100, restored.getLength());
+            assertEquals("video/mp4", restored.getMime());
+            assertEquals(10, restored.available(0));
+            assertEquals(20, restored.available(50));
+            assertEquals(30, restored.getCachedSize());
+            //区间支持只在内存中记录
+            assertFalse(restored.isRangeSupported());
+            assertFalse(restored.isRangeUnsupported());
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void truncatedJournalTail() throws Exception {
+        CacheFile cacheFile = new CacheFile(folder.getRoot(), "key");
+        cacheFile.setInfo(100, "video/mp4", null);
+        cacheFile.write(0, new byte[10], 0, 10);
+        cacheFile.close();
+        File journal = new File(folder.getRoot(), "key.journal");
+        long validLength = journal.length();
+        //模拟崩溃时写了一半的记录
+        RandomAccessFile access = new RandomAccessFile(journal, "rw");
+        try {
+            access.seek(validLength);
+            access.write(new byte[]{2, 0, 0, 0, 16, 1, 2});
+        } finally {
+            access.close();
+        }
+
+        CacheFile restored = new CacheFile(folder.getRoot(), "key");
+        try {
+            assertEquals(10, restored.available(0));
+            assertEquals(validLength, journal.length());
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void rangeBeyondDataIgnored() throws Exception {
+        CacheFile cacheFile = new CacheFile(folder.getRoot(), "key");
+        cacheFile.setInfo(100, "video/mp4", null);
+        cacheFile.write(0, new byte[40], 0, 40);
+        cacheFile.close();
+        //journal已经提交但数据没有落盘
+        RandomAccessFile data = new RandomAccessFile(new File(folder.getRoot(), "key.data"), "rw");
+        try {
+            data.setLength(25);
+        } finally {
+            data.close();
+        }
+
+        CacheFile restored = new CacheFile(folder.getRoot(), "key");
+        try {
+            assertEquals(25, restored.available(0));
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void changedFileClearsCache() throws Exception {
+        CacheFile cacheFile = new CacheFile(folder.getRoot(), "key");
+        try {
+            assertFalse(cacheFile.setInfo(100, "video/mp4", "\"v1\""));
+            cacheFile.write(0, new byte[10], 0, 10);
+            assertFalse(cacheFile.setInfo(100, "video/mp4", "\"v1\""));
+            //没有ETag时不认为文件变了
+            assertFalse(cacheFile.setInfo(100, "video/mp4", null));
+            assertEquals(10, cacheFile.available(0));
+            assertTrue(cacheFile.setInfo(100, "video/mp4", "\"v2\""));
+            assertEquals(0, cacheFile.available(0));
+            cacheFile.write(0, new byte[10], 0, 10);
+            assertTrue(cacheFile.setInfo(200, "video/mp4", "\"v2\""));
+            assertEquals(200, cacheFile.getLength());
+            assertEquals(0, cacheFile.getCachedSize());
+        } finally {
+            cacheFile.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.dou361.ijkplayer.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * mp4布局解析，moov在前和在后的文件，以及按采样表换算时间和偏移
+ */
+public class Mp4LayoutTest {
+
+    /**
+     * 生成的视频：10个采样，每个1秒，每个chunk两个采样，每个chunk 100字节
+     */
+    private static final int SAMPLE_COUNT = 10;
+    private static final int SAMPLES_PER_CHUNK = 2;
+    private static final int CHUNK_COUNT = SAMPLE_COUNT / SAMPLES_PER_CHUNK;
+    private static final int CHUNK_SIZE = 100;
+    private static final int TIMESCALE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CacheFile cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFile = new CacheFile(folder.getRoot(), "key");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cacheFile.close();
+    }
+
+    @Test
+    public void moovAtFront() throws Exception {
+        byte[] ftyp = box("ftyp", "isom".getBytes("ISO-8859-1"), new byte[4]);
+        int moovSize = moov(0).length;
+        long mdatOffset = ftyp.length + moovSize;
+        byte[] moov = moov(mdatOffset + 8);
+        byte[] file = concat(ftyp, moov, mdat());
+        cache(file, file.length);
+
+        Mp4Layout layout = Mp4Layout.read(cacheFile, failingLoader());
+        assertNotNull(layout);
+        assertFalse(layout.isMoovAtEnd());
+        assertEquals(ftyp.length, layout.moovOffset);
+        assertEquals(mdatOffset, layout.mdatOffset);
+        assertEquals(ftyp.length + moovSize, layout.getMoovEnd());
+        assertEquals(SAMPLE_COUNT * 1000, layout.getDurationMs());
+        //没有采样表时不能精确换算
+        assertEquals(-1, layout.getOffsetForTime(3500));
+
+        layout.readSampleTables(cacheFile, failingLoader());
+        long firstChunk = mdatOffset + 8;
+        //3.5秒是第4个采样，在第2个chunk，需要读到第3个chunk开始
+        assertEquals(firstChunk + 2 * CHUNK_SIZE, layout.getOffsetForTime(3500));
+        assertEquals(firstChunk + CHUNK_SIZE, layout.getOffsetForTime(0));
+        //最后一个chunk和超出时长都要读到mdat结尾
+        assertEquals(file.length, layout.getOffsetForTime(9500));
+        assertEquals(file.length, layout.getOffsetForTime(60000));
+    }
+
+    @Test
+    public void moovAtEnd() throws Exception {
+        byte[] ftyp = box("ftyp", "isom".getBytes("ISO-8859-1"), new byte[4]);
+        byte[] mdat = mdat();
+        long mdatOffset = ftyp.length;
+        byte[] moov = moov(mdatOffset + 8);
+        final byte[] file = concat(ftyp, mdat, moov);
+        //只缓存了文件开头，后面的box头和moov由loader加载
+        cache(file, ftyp.length + 16);
+        final int[] loads = new int[1];
+        Mp4Layout.RangeLoader loader = new Mp4Layout.RangeLoader() {
+            @Override
+            public void load(long start, long end) throws IOException {
+                loads[0]++;
+                cacheFile.write(start, file, (int) start, (int) (end - start));
+            }
+        };
+
+        Mp4Layout layout = Mp4Layout.read(cacheFile, loader);
+        assertNotNull(layout);
+        assertTrue(layout.isMoovAtEnd());
+        assertEquals(mdatOffset, layout.mdatOffset);
+        assertEquals(ftyp.length + mdat.length, layout.moovOffset);
+        assertEquals(file.length, layout.getMoovEnd());
+        assertEquals(SAMPLE_COUNT * 1000, layout.getDurationMs());
+        assertTrue(loads[0] > 0);
+        //mdat中间的数据不需要加载
+        assertEquals(0, cacheFile.available(mdatOffset + 8 + CHUNK_SIZE));
+
+        layout.readSampleTables(cacheFile, loader);
+        assertEquals(mdatOffset + 8 + 2 * CHUNK_SIZE, layout.getOffsetForTime(3500));
+    }
+
+    @Test
+    public void largeChunkOffsets() throws Exception {
+        byte[] ftyp = box("ftyp", "isom".getBytes("ISO-8859-1"), new byte[4]);
+        int moovSize = moov(0, true).length;
+        long mdatOffset = ftyp.length + moovSize;
+        byte[] file = concat(ftyp, moov(mdatOffset + 8, true), mdat());
+        cache(file, file.length);
+
+        Mp4Layout layout = Mp4Layout.read(cacheFile, failingLoader());
+        layout.readSampleTables(cacheFile, failingLoader());
+        assertEquals(mdatOffset + 8 + 2 * CHUNK_SIZE, layout.getOffsetForTime(3500));
+    }
+
+    @Test
+    public void notMp4() throws Exception {
+        byte[] file = concat(box("mdat", new byte[32]), box("moov", new byte[32]));
+        cache(file, file.length);
+        assertNull(Mp4Layout.read(cacheFile, failingLoader()));
+    }
+
+    @Test
+    public void missingMoov() throws Exception {
+        byte[] file = concat(box("ftyp", new byte[8]), mdat());
+        cache(file, file.length);
+        assertNull(Mp4Layout.read(cacheFile, failingLoader()));
+    }
+
+    private void cache(byte[] file, int cachedSize) throws IOException {
+        cacheFile.setInfo(file.length, "video/mp4", null);
+        cacheFile.write(0, file, 0, cachedSize);
+    }
+
+    private static Mp4Layout.RangeLoader failingLoader() {
+        return new Mp4Layout.RangeLoader() {
+            @Override
+            public void load(long start, long end) throws IOException {
+                throw new IOException("unexpected load " + start + "-" + end);
+            }
+        };
+    }
+
+    private static byte[] mdat() throws IOException {
+        return box("mdat", new byte[CHUNK_COUNT * CHUNK_SIZE]);
+    }
+
+    private static byte[] moov(long firstChunkOffset) throws IOException {
+        return moov(firstChunkOffset, false);
+    }
+
+    /**
+     * 只有一个轨道的moov
+     * @param firstChunkOffset 第一个chunk在文件中的位置
+     * @param co64 是否用64位的chunk偏移表
+     */
+    private static byte[] moov(long firstChunkOffset, boolean co64) throws IOException {
+        byte[] mvhd = box("mvhd", fullBoxHeader(), uint32(0), uint32(0), uint32(TIMESCALE),
+                uint32(SAMPLE_COUNT * TIMESCALE), new byte[80]);
+        byte[] mdhd = box("mdhd", fullBoxHeader(), uint32(0), uint32(0), uint32(TIMESCALE),
+                uint32(SAMPLE_COUNT * TIMESCALE), new byte[4]);
+        byte[] stts = box("stts", fullBoxHeader(), uint32(1), uint32(SAMPLE_COUNT), uint32(TIMESCALE));
+        byte[] stsc = box("stsc", fullBoxHeader(), uint32(1), uint32(1), uint32(SAMPLES_PER_CHUNK), uint32(1));
+        ByteArrayOutputStream offsets = new ByteArrayOutputStream();
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            long offset = firstChunkOffset + i * CHUNK_SIZE;
+            if (co64) {
+                offsets.write(uint32(offset >>> 32));
+            }
+            offsets.write(uint32(offset));
+        }
+        byte[] chunkOffsets = box(co64 ? "co64" : "stco", fullBoxHeader(), uint32(CHUNK_COUNT), offsets.toByteArray());
+        byte[] stbl = box("stbl", stts, stsc, chunkOffsets);
+        byte[] trak = box("trak", box("mdia", mdhd, box("minf", stbl)));
+        return box("moov", mvhd, trak);
+    }
+
+    private static byte[] fullBoxHeader() {
+        return new byte[4];
+    }
+
+    private static byte[] uint32(long value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static byte[] box(String type, byte[]... payloads) throws IOException {
+        byte[] payload = concat(payloads);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(payload.length + 8);
+        out.write(type.getBytes("ISO-8859-1"));
+        out.write(payload);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part);
+        }
+        return bytes.toByteArray();
+    }
+}
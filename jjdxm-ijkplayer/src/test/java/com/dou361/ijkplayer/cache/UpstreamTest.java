@@ -0,0 +1,103 @@
+package com.dou361.ijkplayer.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.*;
+
+/**
+ * 从响应头中解析视频信息和区间支持
+ */
+public class UpstreamTest {
+
+    private static final String URL = "http://video.example.com/a.mp4";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CacheFile cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFile = new CacheFile(folder.getRoot(), "key");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cacheFile.close();
+    }
+
+    private static Response response(String range, int code, String contentRange, long contentLength, String etag) {
+        Request.Builder request = new Request.Builder().url(URL);
+        if (range != null) {
+            request.header("Range", range);
+        }
+        Response.Builder builder = new Response.Builder()
+                .request(request.build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("OK")
+                .body(ResponseBody.create(new byte[(int) contentLength], MediaType.parse("video/mp4")));
+        if (contentRange != null) {
+            builder.header("Content-Range", contentRange);
+        }
+        if (etag != null) {
+            builder.header("ETag", etag);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void partialContent() throws Exception {
+        Upstream.updateInfo(cacheFile, response("bytes=0-1", 206, "bytes 0-1/123456", 2, null));
+        assertEquals(123456, cacheFile.getLength());
+        assertEquals("video/mp4", cacheFile.getMime());
+        assertTrue(cacheFile.isRangeSupported());
+    }
+
+    @Test
+    public void unknownTotalLength() throws Exception {
+        Upstream.updateInfo(cacheFile, response("bytes=0-1", 206, "bytes 0-1/*", 2, null));
+        assertEquals(-1, cacheFile.getLength());
+        assertTrue(cacheFile.isRangeSupported());
+    }
+
+    @Test
+    public void rangeIgnored() throws Exception {
+        //服务器忽略Range返回整个文件，长度取Content-Length
+        Upstream.updateInfo(cacheFile, response("bytes=100-199", 200, null, 5000, null));
+        assertEquals(5000, cacheFile.getLength());
+        assertTrue(cacheFile.isRangeUnsupported());
+    }
+
+    @Test
+    public void requestWithoutRange() throws Exception {
+        Upstream.updateInfo(cacheFile, response(null, 200, null, 5000, null));
+        assertEquals(5000, cacheFile.getLength());
+        assertFalse(cacheFile.isRangeSupported());
+        assertFalse(cacheFile.isRangeUnsupported());
+    }
+
+    @Test
+    public void changedEtag() throws Exception {
+        Upstream.updateInfo(cacheFile, response("bytes=0-1", 206, "bytes 0-1/5000", 2, "\"v1\""));
+        cacheFile.write(0, new byte[2], 0, 2);
+        try {
+            Upstream.updateInfo(cacheFile, response("bytes=0-1", 206, "bytes 0-1/5000", 2, "\"v2\""));
+            fail("changed file should abort the request");
+        } catch (IOException e) {
+            assertEquals(0, cacheFile.available(0));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.dou361.ijkplayer.utils;
+
+import com.dou361.ijkplayer.bean.VideoijkBean;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * m3u8播放列表解析
+ */
+public class M3u8ParserTest {
+
+    private static final String BASE_URL = "http://video.example.com/hls/index.m3u8?token=abc";
+
+    @Test
+    public void isPlaylistUrl() throws Exception {
+        assertTrue(M3u8Parser.isPlaylistUrl("http://a.com/live/index.m3u8"));
+        assertTrue(M3u8Parser.isPlaylistUrl("http://a.com/live/INDEX.M3U8?key=1.mp4"));
+        assertFalse(M3u8Parser.isPlaylistUrl("http://a.com/video.mp4?list=a.m3u8"));
+        assertFalse(M3u8Parser.isPlaylistUrl(null));
+    }
+
+    @Test
+    public void parseMediaPlaylist() throws Exception {
+        String content = "#EXTM3U\r\n"
+                + "#EXT-X-TARGETDURATION:10\r\n"
+                + "#EXT-X-MEDIA-SEQUENCE:7\r\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"key.bin\"\r\n"
+                + "#EXTINF:9.5,\r\n"
+                + "seg-7.ts\r\n"
+                + "\r\n"
+                + "#EXTINF:4,title\r\n"
+                + "http://cdn.example.com/seg-8.ts\r\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"key.bin\"\r\n"
+                + "#EXT-X-ENDLIST\r\n";
+        M3u8Parser.MediaPlaylist playlist = M3u8Parser.parseMediaPlaylist(BASE_URL, content);
+        assertEquals(10000, playlist.targetDurationMs);
+        assertEquals(7, playlist.mediaSequence);
+        assertTrue(playlist.endList);
+        assertEquals(2, playlist.segments.size());
+        assertEquals("http://video.example.com/hls/seg-7.ts", playlist.segments.get(0).url);
+        assertEquals(9500, playlist.segments.get(0).durationMs);
+        assertEquals("http://cdn.example.com/seg-8.ts", playlist.segments.get(1).url);
+        assertEquals(4000, playlist.segments.get(1).durationMs);
+        //同一个key只记录一次
+        assertEquals(1, playlist.keyUrls.size());
+        assertEquals("http://video.example.com/hls/key.bin", playlist.keyUrls.get(0));
+    }
+
+    @Test
+    public void parseLivePlaylist() throws Exception {
+        String content = "#EXTM3U\n#EXT-X-TARGETDURATION:2\n#EXTINF:2,\n1.ts\n";
+        M3u8Parser.MediaPlaylist playlist = M3u8Parser.parseMediaPlaylist(BASE_URL, content);
+        assertFalse(playlist.endList);
+        assertEquals(1, playlist.segments.size());
+    }
+
+    @Test
+    public void parseMasterPlaylist() throws Exception {
+        String content = "#EXTM3U\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=640x360,CODECS=\"avc1.4d401e,mp4a.40.2\"\n"
+                + "360/index.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=2500000,RESOLUTION=1280x720\n"
+                + "720/index.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=64000\n"
+                + "audio/index.m3u8\n";
+        assertTrue(M3u8Parser.isMasterPlaylist(content));
+        List<VideoijkBean> variants = M3u8Parser.parseMasterPlaylist(BASE_URL, content);
+        assertEquals(3, variants.size());
+        //按码率从高到低
+        assertEquals("http://video.example.com/hls/720/index.m3u8", variants.get(0).getUrl());
+        assertEquals(2500000, variants.get(0).getBandwidth());
+        assertEquals("720P", variants.get(0).getStream());
+        assertEquals(0, variants.get(0).getId());
+        assertEquals(640, variants.get(1).getWidth());
+        assertEquals(360, variants.get(1).getHeight());
+        assertEquals("avc1.4d401e,mp4a.40.2", variants.get(1).getCodecs());
+        assertEquals("64K", variants.get(2).getStream());
+        assertEquals(2, variants.get(2).getId());
+        assertFalse(M3u8Parser.hasAlternateAudio(content));
+    }
+
+    @Test
+    public void hasAlternateAudio() throws Exception {
+        String content = "#EXTM3U\n"
+                + "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aac\",NAME=\"English\",DEFAULT=YES,URI=\"audio/en.m3u8\"\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=2500000,AUDIO=\"aac\"\n"
+                + "720/index.m3u8\n";
+        assertTrue(M3u8Parser.hasAlternateAudio(content));
+        //没有URI的音轨在码流自己的分片里
+        String muxed = "#EXTM3U\n"
+                + "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aac\",NAME=\"English\",DEFAULT=YES\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=2500000,AUDIO=\"aac\"\n"
+                + "720/index.m3u8\n";
+        assertFalse(M3u8Parser.hasAlternateAudio(muxed));
+    }
+
+    @Test
+    public void rewriteUrls() throws Exception {
+        String content = "#EXTM3U\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"key.bin\"\n"
+                + "#EXTINF:2,\n"
+                + "seg.ts\n";
+        String rewritten = M3u8Parser.rewriteUrls(BASE_URL, content, new M3u8Parser.UrlMapper() {
+            @Override
+            public String map(String url) {
+                return "proxy:" + url;
+            }
+        });
+        assertEquals("#EXTM3U\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"proxy:http://video.example.com/hls/key.bin\"\n"
+                + "#EXTINF:2,\n"
+                + "proxy:http://video.example.com/hls/seg.ts\n", rewritten);
+    }
+}